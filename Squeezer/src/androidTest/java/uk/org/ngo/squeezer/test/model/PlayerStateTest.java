@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.test.model;
+
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+
+import uk.org.ngo.squeezer.model.PlayerState;
+
+public class PlayerStateTest extends AndroidTestCase {
+
+    /**
+     * A player state with sync slaves is saved in the connection snapshot, so it must survive
+     * a round trip through a {@link Parcel}.
+     */
+    public void testParcelSyncSlaves() {
+        PlayerState playerState = new PlayerState();
+        playerState.setPlayStatus(PlayerState.PLAY_STATE_PLAY);
+        playerState.setShuffleStatus(PlayerState.ShuffleStatus.SHUFFLE_OFF);
+        playerState.setRepeatStatus(PlayerState.RepeatStatus.REPEAT_OFF);
+        playerState.setCurrentPlaylist("");
+        playerState.setSyncSlaves("00:04:20:00:00:02,00:04:20:00:00:03");
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(playerState, 0);
+            parcel.setDataPosition(0);
+            PlayerState copy = parcel.readParcelable(PlayerState.class.getClassLoader());
+
+            assertEquals(Arrays.asList("00:04:20:00:00:02", "00:04:20:00:00:03"), copy.getSyncSlaves());
+            assertFalse("The comma separated list is restored",
+                    copy.setSyncSlaves("00:04:20:00:00:02,00:04:20:00:00:03"));
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -40,6 +40,7 @@ import androidx.fragment.app.FragmentManager;
 import androidx.fragment.app.FragmentTransaction;
 import androidx.appcompat.app.ActionBar;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -97,6 +98,7 @@ import uk.org.ngo.squeezer.service.event.RepeatStatusChanged;
 import uk.org.ngo.squeezer.service.event.ShuffleStatusChanged;
 import uk.org.ngo.squeezer.service.event.SongTimeChanged;
 import uk.org.ngo.squeezer.util.ImageFetcher;
+import uk.org.ngo.squeezer.util.PlaybackTicker;
 import uk.org.ngo.squeezer.widget.OnSwipeListener;
 
 public class NowPlayingFragment extends Fragment {
@@ -160,6 +162,14 @@ public class NowPlayingFragment extends Fragment {
     // Updating the seekbar
     private boolean updateSeekBar = true;
 
+    /** Updates the progress through the track while the active player is playing. */
+    private final PlaybackTicker mPlaybackTicker = new PlaybackTicker(PlaybackTicker.Rate.SECOND, new PlaybackTicker.Listener() {
+        @Override
+        public void onTick(@NonNull Player player, double trackElapsed) {
+            updateTimeDisplayTo((int) trackElapsed, player.getPlayerState().getCurrentSongDuration());
+        }
+    });
+
     private Button volumeButton;
 
     private Button playlistButton;
@@ -244,6 +254,17 @@ public class NowPlayingFragment extends Fragment {
         mFullHeightLayout = (layout_height == ViewGroup.LayoutParams.FILL_PARENT);
     }
 
+    /**
+     * The size the artwork is loaded at in the full now playing screen.
+     * <p>
+     * The album art view is square and fits within the display, so this is enough for any
+     * orientation. Unlike the measured size of the view, it is known before the screen is shown,
+     * so the artwork of the next tracks can be prefetched with the same memory cache key.
+     */
+    public static int getArtworkSize(DisplayMetrics displayMetrics) {
+        return Math.min(displayMetrics.widthPixels, displayMetrics.heightPixels);
+    }
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -652,6 +673,7 @@ public class NowPlayingFragment extends Fragment {
     @UiThread
     private void updateUiFromPlayerState(@NonNull PlayerState playerState) {
         updateSongInfo(playerState);
+        updatePlaybackTicker();
 
         updatePlayPauseIcon(playerState.getPlayStatus());
         updateShuffleStatus(playerState.getShuffleStatus());
@@ -659,6 +681,20 @@ public class NowPlayingFragment extends Fragment {
         updatePowerMenuItems(canPowerOn(), canPowerOff());
     }
 
+    /**
+     * Keep the ticker going for the active player while we receive events. The ticker stops by
+     * itself when the player is not playing.
+     */
+    @UiThread
+    private void updatePlaybackTicker() {
+        Player activePlayer = (mRegisteredCallbacks ? mService.getActivePlayer() : null);
+        if (activePlayer != null) {
+            mPlaybackTicker.start(activePlayer);
+        } else {
+            mPlaybackTicker.stop();
+        }
+    }
+
     /**
      * Joins elements together with ' - ', skipping nulls.
      */
@@ -724,7 +760,12 @@ public class NowPlayingFragment extends Fragment {
         if (!song.hasArtwork()) {
             albumArt.setImageDrawable(song.getIconDrawable(mActivity));
         } else {
-            ImageFetcher.getInstance(mActivity).loadImage(song.getIcon(), albumArt);
+            if (mFullHeightLayout) {
+                int size = getArtworkSize(getResources().getDisplayMetrics());
+                ImageFetcher.getInstance(mActivity).loadImage(song.getIcon(), albumArt, size, size);
+            } else {
+                ImageFetcher.getInstance(mActivity).loadImage(song.getIcon(), albumArt);
+            }
         }
     }
 
@@ -816,6 +857,7 @@ public class NowPlayingFragment extends Fragment {
             mService.getEventBus().unregister(this);
             mRegisteredCallbacks = false;
         }
+        mPlaybackTicker.stop();
 
         pluginViewDelegate.resetContextMenu();
 
@@ -986,6 +1028,9 @@ public class NowPlayingFragment extends Fragment {
             return;
         }
 
+        // The status of the players is no longer current
+        mPlaybackTicker.stop();
+
         // Handle any of the reasons for disconnection, clear the dialog and show the
         // ConnectActivity.
         if (event.connectionState == ConnectionState.DISCONNECTED) {
@@ -1018,8 +1063,10 @@ public class NowPlayingFragment extends Fragment {
         }
 
         // Any other event means that a connection is in progress or completed.
-        // Show the the dialog if appropriate.
-        if (event.connectionState != ConnectionState.CONNECTION_COMPLETED) {
+        // Show the the dialog if appropriate, unless we have the state from the last connection
+        // to show meanwhile.
+        PlayerState restoredPlayerState = getPlayerState();
+        if (event.connectionState != ConnectionState.CONNECTION_COMPLETED && restoredPlayerState == null) {
             showConnectingDialog();
         }
 
@@ -1050,6 +1097,14 @@ public class NowPlayingFragment extends Fragment {
             mProgressBar.setEnabled(false);
             mProgressBar.setProgress(0);
         }
+
+        if (restoredPlayerState != null) {
+            // Controls stay disabled until the handshake is complete
+            updatePlayerDropDown(mService.getPlayers(), mService.getActivePlayer());
+            updateSongInfo(restoredPlayerState);
+            disableButton(nextButton);
+            disableButton(prevButton);
+        }
      }
 
     @MainThread
@@ -1110,6 +1165,7 @@ public class NowPlayingFragment extends Fragment {
     public void onEventMainThread(PlayStatusChanged event) {
         if (event.player.equals(mService.getActivePlayer())) {
             updatePlayPauseIcon(event.playStatus);
+            updatePlaybackTicker();
         }
     }
 
@@ -1122,13 +1178,8 @@ public class NowPlayingFragment extends Fragment {
 
     @MainThread
     public void onEventMainThread(HomeMenuEvent event) {
-        globalSearch = null;
-        for (Plugin menuItem : event.menuItems) {
-            if ("globalSearch".equals(menuItem.getId()) && menuItem.goAction != null) {
-                globalSearch = menuItem;
-                break;
-            }
-        }
+        Plugin menuItem = event.menu.get("globalSearch");
+        globalSearch = (menuItem != null && menuItem.goAction != null ? menuItem : null);
         if (menu_item_search != null) {
             menu_item_search.setVisible(globalSearch != null);
         }
@@ -1152,6 +1203,7 @@ public class NowPlayingFragment extends Fragment {
     public void onEventMainThread(SongTimeChanged event) {
         if (event.player.equals(mService.getActivePlayer())) {
             updateTimeDisplayTo(event.currentPosition, event.duration);
+            updatePlaybackTicker();
         }
     }
 }
@@ -180,7 +180,7 @@ public class Util {
     /** Make sure the icon/image tag is an absolute URL. */
     private static final Pattern HEX_PATTERN = Pattern.compile("^\\p{XDigit}+$");
     @NonNull
-    private static Uri getImageUrl(String urlPrefix, String imageId) {
+    public static Uri getImageUrl(String urlPrefix, String imageId) {
         if (imageId != null) {
             if (HEX_PATTERN.matcher(imageId).matches()) {
                 // if the iconId is a hex digit, this is a coverid or remote track id(a negative id)
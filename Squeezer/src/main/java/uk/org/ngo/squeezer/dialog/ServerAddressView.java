@@ -164,22 +164,38 @@ public class ServerAddressView extends LinearLayout implements ScanNetworkTask.S
      * Starts scanning for servers.
      */
     void startNetworkScan(Context context) {
+        if (mScanNetworkTask != null) {
+            mScanNetworkTask.cancel();
+        }
         mScanResults.setVisibility(GONE);
         mScanProgress.setVisibility(VISIBLE);
+        mDiscoveredServers = new TreeMap<>();
         mScanNetworkTask = new ScanNetworkTask(context, this);
         new Thread(mScanNetworkTask).start();
     }
 
+    /**
+     * Called when a server is found while scanning, so the user can choose it right away.
+     */
+    @Override
+    public void onServerFound(String name, String address) {
+        if (mScanNetworkTask == null) {
+            return;
+        }
+
+        mDiscoveredServers.put(name, address);
+        mScanResults.setVisibility(VISIBLE);
+        showDiscoveredServers();
+    }
+
     /**
      * Called when server scanning has finished.
      * @param serverMap Discovered servers, key is the server name, value is the IP address.
      */
+    @Override
     public void onScanFinished(TreeMap<String, String> serverMap) {
         mScanResults.setVisibility(VISIBLE);
-        mServerName.setVisibility(GONE);
-        mServersSpinner.setVisibility(GONE);
         mScanProgress.setVisibility(GONE);
-        mServersAdapter.clear();
 
         if (mScanNetworkTask == null) {
             return;
@@ -189,6 +205,14 @@ public class ServerAddressView extends LinearLayout implements ScanNetworkTask.S
 
         mScanNetworkTask = null;
 
+        showDiscoveredServers();
+    }
+
+    private void showDiscoveredServers() {
+        mServerName.setVisibility(GONE);
+        mServersSpinner.setVisibility(GONE);
+        mServersAdapter.clear();
+
         if (mDiscoveredServers.size() == 0) {
             // No servers found, manually enter address
             // Populate the edit text widget with current address stored in preferences.
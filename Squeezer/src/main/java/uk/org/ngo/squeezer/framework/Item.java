@@ -222,34 +222,46 @@ public abstract class Item implements Parcelable {
     }
 
 
+    /**
+     * Create an item from a record, which may hold its own <code>base</code> record and
+     * <code>urlPrefix</code>.
+     */
     public Item(Map<String, Object> record) {
+        this(record, new ItemTemplate(Util.getRecord(record, "base"), null));
+    }
+
+    /**
+     * Create an item from a record in a page of items.
+     *
+     * @param record The fields of this item.
+     * @param base The fields shared by all items in the page.
+     */
+    public Item(Map<String, Object> record, @NonNull ItemTemplate base) {
+        String urlPrefix = (base.urlPrefix != null ? base.urlPrefix : getString(record, "urlPrefix"));
         setId(getString(record, record.containsKey("cmd") ? "cmd" : "id"));
         splitItemText(getStringOrEmpty(record, record.containsKey("name") ? "name" : "text"));
-        icon = getImageUrl(record, record.containsKey("icon-id") ? "icon-id" : "icon");
+        icon = Util.getImageUrl(urlPrefix, getString(record, record.containsKey("icon-id") ? "icon-id" : "icon"));
         node = getString(record, "node");
         weight = getInt(record, "weight");
         type = getString(record, "type");
-        Map<String, Object> baseRecord = getRecord(record, "base");
-        Map<String, Object> baseActions = (baseRecord != null ? getRecord(baseRecord, "actions") : null);
-        Map<String, Object> baseWindow = (baseRecord != null ? getRecord(baseRecord, "window") : null);
         Map<String, Object> actionsRecord = getRecord(record, "actions");
         nextWindow = Action.NextWindow.fromString(getString(record, "nextWindow"));
         input = extractInput(getRecord(record, "input"));
-        window = extractWindow(getRecord(record, "window"), baseWindow);
+        window = extractWindow(getRecord(record, "window"), base.window, urlPrefix);
 
         // do takes precedence over go
-        goAction = extractAction("do", baseActions, actionsRecord, record, baseRecord);
+        goAction = extractAction("do", base, actionsRecord, record);
         doAction = (goAction != null);
         if (goAction == null) {
             // check if item instructs us to use a different action
             String goActionName = record.containsKey("goAction") ? getString(record, "goAction") : "go";
-            goAction = extractAction(goActionName, baseActions, actionsRecord, record, baseRecord);
+            goAction = extractAction(goActionName, base, actionsRecord, record);
         }
 
-        playAction = extractAction("play", baseActions, actionsRecord, record, baseRecord);
-        addAction = extractAction("add", baseActions, actionsRecord, record, baseRecord);
-        insertAction = extractAction("add-hold", baseActions, actionsRecord, record, baseRecord);
-        moreAction = extractAction("more", baseActions, actionsRecord, record, baseRecord);
+        playAction = extractAction("play", base, actionsRecord, record);
+        addAction = extractAction("add", base, actionsRecord, record);
+        insertAction = extractAction("add-hold", base, actionsRecord, record);
+        moreAction = extractAction("more", base, actionsRecord, record);
         if (moreAction != null) {
             moreAction.action.params.put("xmlBrowseInterimCM", 1);
         }
@@ -266,8 +278,8 @@ public abstract class Item implements Parcelable {
         if (record.containsKey("checkbox")) {
             checkbox = (getInt(record, "checkbox") != 0);
             checkboxActions = new HashMap<>();
-            checkboxActions.put(true, extractAction("on", baseActions, actionsRecord, record, baseRecord));
-            checkboxActions.put(false, extractAction("off", baseActions, actionsRecord, record, baseRecord));
+            checkboxActions.put(true, extractAction("on", base, actionsRecord, record));
+            checkboxActions.put(false, extractAction("off", base, actionsRecord, record));
         }
 
         if (record.containsKey("radio")) {
@@ -448,11 +460,6 @@ public abstract class Item implements Parcelable {
         return Util.getStringOrEmpty(record, fieldName);
     }
 
-    @NonNull
-    private static Uri getImageUrl(Map<String, Object> record, String fieldName) {
-        return Util.getImageUrl(record, fieldName);
-    }
-
     private void splitItemText(String text) {
         // This happens enough for regular expressions to be ineffective
         int nameEnd = text.indexOf('\n');
@@ -465,24 +472,36 @@ public abstract class Item implements Parcelable {
         }
     }
 
+    /**
+     * Create a window from window fields which hold their own <code>urlPrefix</code>.
+     */
     public static Window extractWindow(Map<String, Object> itemWindow, Map<String, Object> baseWindow) {
+        return extractWindow(itemWindow, baseWindow, null);
+    }
+
+    /**
+     * Create a window from the supplied window fields. Fields in the item window takes precedence
+     * over fields in the base window.
+     */
+    public static Window extractWindow(Map<String, Object> itemWindow, Map<String, Object> baseWindow, String urlPrefix) {
         if (itemWindow == null && baseWindow == null) return null;
 
-        Map<String, Object> params = new HashMap<>();
-        if (baseWindow != null) params.putAll(baseWindow);
-        if (itemWindow != null) params.putAll(itemWindow);
+        if (urlPrefix == null) {
+            urlPrefix = getWindowString(itemWindow, baseWindow, "urlPrefix");
+        }
 
         Window window = new Window();
-        window.windowId = getString(params, "windowId");
-        window.text = getString(params, "text");
-        window.textarea = getString(params, "textarea");
-        window.textareaToken = getString(params, "textAreaToken");
-        window.help = getString(params, "help");
-        window.icon = getImageUrl(params, params.containsKey("icon-id") ? "icon-id" : "icon");
-        window.titleStyle = getString(params, "titleStyle");
-
-        String menuStyle = getString(params, "menuStyle");
-        String windowStyle = getString(params, "windowStyle");
+        window.windowId = getWindowString(itemWindow, baseWindow, "windowId");
+        window.text = getWindowString(itemWindow, baseWindow, "text");
+        window.textarea = getWindowString(itemWindow, baseWindow, "textarea");
+        window.textareaToken = getWindowString(itemWindow, baseWindow, "textAreaToken");
+        window.help = getWindowString(itemWindow, baseWindow, "help");
+        String iconField = (hasWindowField(itemWindow, baseWindow, "icon-id") ? "icon-id" : "icon");
+        window.icon = Util.getImageUrl(urlPrefix, getWindowString(itemWindow, baseWindow, iconField));
+        window.titleStyle = getWindowString(itemWindow, baseWindow, "titleStyle");
+
+        String menuStyle = getWindowString(itemWindow, baseWindow, "menuStyle");
+        String windowStyle = getWindowString(itemWindow, baseWindow, "windowStyle");
         window.windowStyle = Window.WindowStyle.get(windowStyle);
         if (window.windowStyle == null) {
             window.windowStyle = menu2window.get(menuStyle);
@@ -494,6 +513,17 @@ public abstract class Item implements Parcelable {
         return window;
     }
 
+    private static boolean hasWindowField(Map<String, Object> itemWindow, Map<String, Object> baseWindow, String fieldName) {
+        return (itemWindow != null && itemWindow.containsKey(fieldName)) || (baseWindow != null && baseWindow.containsKey(fieldName));
+    }
+
+    private static String getWindowString(Map<String, Object> itemWindow, Map<String, Object> baseWindow, String fieldName) {
+        if (itemWindow != null && itemWindow.containsKey(fieldName)) {
+            return getString(itemWindow, fieldName);
+        }
+        return (baseWindow != null ? getString(baseWindow, fieldName) : null);
+    }
+
     /**
      * legacy map of menuStyles to windowStyles
      * <p>
@@ -531,55 +561,49 @@ public abstract class Item implements Parcelable {
         return input;
     }
 
-    private Action extractAction(String actionName, Map<String, Object> baseActions, Map<String, Object> itemActions, Map<String, Object> record, Map<String, Object> baseRecord) {
-        Map<String, Object> actionRecord = null;
+    private Action extractAction(String actionName, ItemTemplate base, Map<String, Object> itemActions, Map<String, Object> record) {
+        ItemTemplate.ActionTemplate actionTemplate = null;
         Map<String, Object> itemParams = null;
 
         Object itemAction = (itemActions != null ? itemActions.get(actionName) : null);
         if (itemAction instanceof Map) {
-            actionRecord = (Map<String, Object>) itemAction;
-        }
-        if (actionRecord == null && baseActions != null) {
-            Map<String, Object> baseAction = getRecord(baseActions, actionName);
+            actionTemplate = new ItemTemplate.ActionTemplate((Map<String, Object>) itemAction, null);
+        } else {
+            ItemTemplate.ActionTemplate baseAction = base.getAction(actionName);
             if (baseAction != null) {
-                String itemsParams = (String) baseAction.get("itemsParams");
-                if (itemsParams != null) {
-                    itemParams = getRecord(record, itemsParams);
-                    if (itemParams != null) {
-                        actionRecord = baseAction;
-                    }
+                itemParams = getRecord(record, baseAction.itemsParams);
+                if (itemParams != null) {
+                    actionTemplate = baseAction;
                 }
             }
         }
-        if (actionRecord == null) return null;
+        if (actionTemplate == null) return null;
 
         Action actionHolder = new Action();
 
-        if (actionRecord.containsKey("choices")) {
-            Object[] choices = (Object[]) actionRecord.get("choices");
-            actionHolder.choices = new Action.JsonAction[choices.length];
-            for (int i = 0; i < choices.length; i++) {
-                actionRecord = (Map<String, Object>) choices[i];
-                actionHolder.choices[i]= extractJsonAction(baseRecord, actionRecord, itemParams);
+        if (actionTemplate.choices != null) {
+            actionHolder.choices = new Action.JsonAction[actionTemplate.choices.length];
+            for (int i = 0; i < actionTemplate.choices.length; i++) {
+                actionHolder.choices[i]= extractJsonAction(base, actionTemplate.choices[i], itemParams);
             }
         } else {
-            actionHolder.action = extractJsonAction(baseRecord, actionRecord, itemParams);
+            actionHolder.action = extractJsonAction(base, actionTemplate.action, itemParams);
         }
 
         return actionHolder;
     }
 
-    private Action.JsonAction extractJsonAction(Map<String, Object> baseRecord, Map<String, Object> actionRecord, Map<String, Object> itemParams) {
+    private Action.JsonAction extractJsonAction(ItemTemplate base, ItemTemplate.JsonActionTemplate actionTemplate, Map<String, Object> itemParams) {
         Action.JsonAction action = new Action.JsonAction();
 
-        action.nextWindow = Action.NextWindow.fromString(getString(actionRecord, "nextWindow"));
+        action.nextWindow = Action.NextWindow.fromString(actionTemplate.nextWindow);
         if (action.nextWindow == null) action.nextWindow = nextWindow;
-        if (action.nextWindow == null && baseRecord != null)
-            action.nextWindow = Action.NextWindow.fromString(getString(baseRecord, "nextWindow"));
+        if (action.nextWindow == null)
+            action.nextWindow = Action.NextWindow.fromString(base.nextWindow);
 
-        action.cmd = Util.getStringArray((Object[]) actionRecord.get("cmd"));
+        action.cmd = actionTemplate.cmd;
         action.params = new HashMap<>();
-        Map<String, Object> params = getRecord(actionRecord, "params");
+        Map<String, Object> params = actionTemplate.params;
         if (params != null) {
             action.params.putAll(params);
         }
@@ -596,9 +620,8 @@ public abstract class Item implements Parcelable {
             action.params.put("_quantity", 2);
         }
 
-        Map<String, Object> windowRecord = getRecord(actionRecord, "window");
-        if (windowRecord != null) {
-            action.window = new Action.ActionWindow(getInt(windowRecord, "isContextMenu") != 0);
+        if (actionTemplate.hasWindow) {
+            action.window = new Action.ActionWindow(actionTemplate.windowIsContextMenu);
         }
 
         // LMS may send isContextMenu in the itemParams, but this is ignored by squeezeplay, so we must do the same.
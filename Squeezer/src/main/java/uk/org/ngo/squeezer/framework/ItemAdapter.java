@@ -16,7 +16,6 @@
 
 package uk.org.ngo.squeezer.framework;
 
-import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
@@ -45,6 +44,12 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
      */
     private ItemView<T> mItemView;
 
+    /**
+     * The number of items to keep in memory. Pages beyond this are evicted, least recently used
+     * first, and ordered again when they are needed.
+     */
+    private static final int MAX_LOADED_PAGES = 50;
+
     /**
      * List of items, possibly headed with an empty item.
      * <p>
@@ -52,7 +57,7 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
      */
     private int count;
 
-    private final SparseArray<T[]> pages = new SparseArray<>();
+    private final PageStore<T> pages;
 
     /**
      * This is set if the list shall start with an empty item.
@@ -87,7 +92,13 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
         mEmptyItem = emptyItem;
         loadingText = itemView.getActivity().getString(R.string.loading_text);
         pageSize = itemView.getActivity().getResources().getInteger(R.integer.PageSize);
-        pages.clear();
+        pages = new PageStore<>(pageSize, MAX_LOADED_PAGES * pageSize, new PageStore.EvictionListener() {
+            @Override
+            public void onEvicted(int start, int length) {
+                int offset = (mEmptyItem ? 1 : 0);
+                getActivity().onItemsEvicted(Math.max(0, start - offset), length);
+            }
+        });
     }
 
     /**
@@ -107,6 +118,7 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
     public void clear() {
         count = (mEmptyItem ? 1 : 0);
         pages.clear();
+        pages.setSize(count);
         notifyDataSetChanged();
     }
 
@@ -160,34 +172,22 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
         return count;
     }
 
-    private T[] getPage(int position) {
-        int pageNumber = pageNumber(position);
-        T[] page = pages.get(pageNumber);
-        if (page == null) {
-            pages.put(pageNumber, page = arrayInstance(pageSize));
-        }
-        return page;
-    }
-
     private void setItems(int start, List<T> items) {
-        T[] page = getPage(start);
-        int offset = start % pageSize;
+        int position = start;
         for (T item : items) {
-            if (item.radio != null && item.radio) {
-                selectedIndex = start + offset;
+            if (position >= pages.size()) {
+                break;
             }
-            if (offset >= pageSize) {
-                start += offset;
-                page = getPage(start);
-                offset = 0;
+            if (item.radio != null && item.radio) {
+                selectedIndex = position;
             }
-            page[offset++] = item;
+            pages.set(position++, item);
         }
     }
 
     @Override
     public T getItem(int position) {
-        T item = getPage(position)[position % pageSize];
+        T item = (position < pages.size() ? pages.get(position) : null);
         if (item == null) {
             if (mEmptyItem) {
                 position--;
@@ -201,7 +201,7 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
         if (item.radio != null && item.radio) {
             selectedIndex = position;
         }
-        getPage(position)[position % pageSize] = item;
+        pages.set(position, item);
     }
 
     @Override
@@ -237,6 +237,7 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
         start += offset;
         if (count == 0 || count != getCount()) {
             this.count = count;
+            pages.setSize(count);
             onCountUpdated();
         }
         setItems(start, items);
@@ -264,19 +265,7 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
      * Remove the item at the specified position, update the count and notify the change.
      */
     public void removeItem(int position) {
-        T[] page = getPage(position);
-        int offset = position % pageSize;
-        while (position++ <= count) {
-            if (offset == pageSize - 1) {
-                T[] nextPage = getPage(position);
-                page[offset] = nextPage[0];
-                offset = 0;
-                page = nextPage;
-            } else {
-                page[offset] = page[offset+1];
-                offset++;
-            }
-        }
+        pages.remove(position);
 
         count--;
         onCountUpdated();
@@ -284,29 +273,29 @@ public class ItemAdapter<T extends Item> extends BaseAdapter {
     }
 
     public void insertItem(int position, T item) {
-        int n = count;
-        T[] page = getPage(n);
-        int offset = n % pageSize;
-        while (n-- > position) {
-            if (offset == 0) {
-                T[] nextPage = getPage(n);
-                offset = pageSize - 1;
-                page[0] = nextPage[offset];
-                page = nextPage;
-            } else {
-                page[offset] = page[offset-1];
-                offset--;
-            }
-        }
-        page[offset] = item;
+        pages.insert(position, item);
 
         count++;
         onCountUpdated();
         notifyDataSetChanged();
     }
 
-    private T[] arrayInstance(int size) {
-        return mItemView.getCreator().newArray(size);
+    /**
+     * Insert empty positions for items which are not received yet, update the count and notify
+     * the change.
+     */
+    public void insertEmptyItems(int position, int length) {
+        if (position == pages.size()) {
+            pages.setSize(pages.size() + length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                pages.insert(position, null);
+            }
+        }
+
+        count += length;
+        onCountUpdated();
+        notifyDataSetChanged();
     }
 
 }
@@ -18,6 +18,7 @@ package uk.org.ngo.squeezer.framework;
 
 
 import android.os.Bundle;
+import android.os.SystemClock;
 import androidx.annotation.MainThread;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
@@ -31,6 +32,7 @@ import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
@@ -71,6 +73,16 @@ public abstract class ItemListActivity extends BaseActivity {
      */
     private final Set<Integer> mOrderedPages = new HashSet<>();
 
+    /**
+     * The pages in {@link #mOrderedPages} which were ordered ahead of the visible rows.
+     */
+    private final Set<Integer> mPrefetchedPages = new HashSet<>();
+
+    /**
+     * Decides which pages to order ahead of the visible rows.
+     */
+    private PagePrefetcher mPrefetcher;
+
     /**
      * The pages that have been received from the server
      */
@@ -137,6 +149,7 @@ public abstract class ItemListActivity extends BaseActivity {
         super.onCreate(savedInstanceState);
 
         mPageSize = getResources().getInteger(R.integer.PageSize);
+        mPrefetcher = new PagePrefetcher(mPageSize);
 
         mRetainFragment = RetainFragment.getInstance(TAG, getSupportFragmentManager());
 
@@ -239,7 +252,12 @@ public abstract class ItemListActivity extends BaseActivity {
      * @return True if the page needed to be ordered (even if the order failed), false otherwise.
      */
     public boolean maybeOrderPage(int pagePosition) {
-        if (!mListScrolling && !mReceivedPages.contains(pagePosition) && !mOrderedPages
+        // While scrolling, pages are ordered by maybePrefetchPages
+        return !mListScrolling && orderPageIfNeeded(pagePosition);
+    }
+
+    private boolean orderPageIfNeeded(int pagePosition) {
+        if (!mReceivedPages.contains(pagePosition) && !mOrderedPages
                 .contains(pagePosition) && !mOrderedPagesBeforeHandshake.contains(pagePosition)) {
             ISqueezeService service = getService();
 
@@ -251,6 +269,7 @@ public abstract class ItemListActivity extends BaseActivity {
                 try {
                     orderPage(service, pagePosition);
                     mOrderedPages.add(pagePosition);
+                    mPrefetcher.onPageOrdered(pagePosition, SystemClock.uptimeMillis());
                 } catch (SqueezeService.HandshakeNotCompleteException e) {
                     mOrderedPagesBeforeHandshake.push(pagePosition);
                 }
@@ -306,6 +325,40 @@ public abstract class ItemListActivity extends BaseActivity {
         }
     }
 
+    /**
+     * Orders pages ahead of the visible rows in the scroll direction, and forgets prefetched
+     * pages which have scrolled out of range.
+     * <p>
+     * The requests for forgotten pages are cancelled, so they are not sent if they are still
+     * queued, and their replies are ignored. They are ordered again if they are needed later.
+     *
+     * @param listView The listview with visible rows.
+     */
+    private void maybePrefetchPages(AbsListView listView) {
+        int[] range = mPrefetcher.getPrefetchRange(listView.getFirstVisiblePosition(), listView.getChildCount(), listView.getCount());
+        int first = (range[0] / mPageSize) * mPageSize;
+        int last = range[1];
+
+        for (Iterator<Integer> it = mPrefetchedPages.iterator(); it.hasNext(); ) {
+            int pagePosition = it.next();
+            if (pagePosition < first || pagePosition > last) {
+                it.remove();
+                mOrderedPages.remove(pagePosition);
+                mPrefetcher.onPageCancelled(pagePosition);
+                ISqueezeService service = getService();
+                if (service != null) {
+                    service.cancelItemListRequests(this, pagePosition, mPageSize);
+                }
+            }
+        }
+
+        for (int pos = first; pos <= last; pos += mPageSize) {
+            if (orderPageIfNeeded(pos) && mOrderedPages.contains(pos)) {
+                mPrefetchedPages.add(pos);
+            }
+        }
+    }
+
     /**
      * Tracks items that have been received from the server.
      * <p>
@@ -320,30 +373,47 @@ public abstract class ItemListActivity extends BaseActivity {
      */
     @CallSuper
     protected <T extends Item> void onItemsReceived(final int count, final int start, final List<T> items, final Class<T> dataType) {
-        int size = items.size();
+        final int size = items.size();
         Log.d(getTag(), "onItemsReceived(" + count + ", " + start + ", " + size + ")");
+        final long receivedAt = SystemClock.uptimeMillis();
 
-        // If this doesn't add any items, then don't register the page as received
-        if (start < count && size != 0) {
-            // Because we might receive a page in chunks, we test if this is the end of a page
-            // before we register the page as received.
-            if (((start + size) % mPageSize == 0) || (start + size == count)) {
-                // Add this page of data to mReceivedPages and remove from mOrderedPages.
-                int pageStart = (start / mPageSize) * mPageSize;
-                mReceivedPages.add(pageStart);
-                mOrderedPages.remove(pageStart);
-            }
-        }
-
+        // The page bookkeeping is done on the UI thread, where pages are ordered and prefetched
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                // If this doesn't add any items, then don't register the page as received
+                if (start < count && size != 0) {
+                    // Because we might receive a page in chunks, we test if this is the end of a
+                    // page before we register the page as received.
+                    if (((start + size) % mPageSize == 0) || (start + size == count)) {
+                        // Add this page of data to mReceivedPages and remove from mOrderedPages.
+                        int pageStart = (start / mPageSize) * mPageSize;
+                        mReceivedPages.add(pageStart);
+                        mOrderedPages.remove(pageStart);
+                        mPrefetchedPages.remove(pageStart);
+                        mPrefetcher.onPageReceived(pageStart, receivedAt);
+                    }
+                }
+
                 showContent();
                 updateAdapter(count, start, items, dataType);
             }
         });
     }
 
+    /**
+     * Called when items have been evicted from memory by the adapter. Forget that the pages
+     * holding them have been received, so they are ordered again when they are needed.
+     *
+     * @param start Position of the first evicted item
+     * @param length Number of evicted items
+     */
+    public void onItemsEvicted(int start, int length) {
+        for (int pos = (start / mPageSize) * mPageSize; pos < start + length; pos += mPageSize) {
+            mReceivedPages.remove(pos);
+        }
+    }
+
     /**
      * Empties the variables that track which pages have been requested, and orders page 0.
      */
@@ -355,25 +425,55 @@ public abstract class ItemListActivity extends BaseActivity {
         }
     }
 
+    /**
+     * Forget that the pages from the given position on have been received or ordered, because
+     * items have been inserted or removed. Items which are still loaded are shown, and pages are
+     * ordered again where items are missing.
+     */
+    public void forgetPagesFrom(int position) {
+        int pageStart = (position / mPageSize) * mPageSize;
+        forgetPages(mReceivedPages, pageStart);
+        forgetPages(mOrderedPages, pageStart);
+        forgetPages(mPrefetchedPages, pageStart);
+        maybeOrderVisiblePages(listView);
+    }
+
+    private static void forgetPages(Set<Integer> pages, int pageStart) {
+        for (Iterator<Integer> it = pages.iterator(); it.hasNext(); ) {
+            if (it.next() >= pageStart) {
+                it.remove();
+            }
+        }
+    }
+
     /** Empty the variables that track which pages have been requested. */
     public void clearItems() {
         mOrderedPagesBeforeHandshake.clear();
         mOrderedPages.clear();
+        mPrefetchedPages.clear();
         mReceivedPages.clear();
+        mPrefetcher.clear();
         clearItemAdapter();
     }
 
     /**
-     * Removes any outstanding requests from mOrderedPages.
+     * Cancels any outstanding requests, and removes them from mOrderedPages.
      */
     private void cancelOrders() {
+        ISqueezeService service = getService();
+        if (service != null) {
+            service.cancelItemListRequests(this);
+        }
         mOrderedPages.clear();
+        mPrefetchedPages.clear();
+        mPrefetcher.clear();
     }
 
     /**
      * Tracks scrolling activity.
      * <p>
-     * When the list is idle, new pages of data are fetched from the server.
+     * When the list is idle, new pages of data are fetched from the server. While it is
+     * scrolling, pages are fetched ahead of the visible rows in the scroll direction.
      * <p>
      * Use a TouchListener to work around an Android bug where SCROLL_STATE_IDLE messages are not
      * delivered after SCROLL_STATE_TOUCH_SCROLL messages.
@@ -411,7 +511,9 @@ public abstract class ItemListActivity extends BaseActivity {
             switch (scrollState) {
                 case OnScrollListener.SCROLL_STATE_IDLE:
                     mListScrolling = false;
+                    mPrefetcher.onScrollIdle();
                     maybeOrderVisiblePages(listView);
+                    maybePrefetchPages(listView);
                     break;
 
                 case OnScrollListener.SCROLL_STATE_FLING:
@@ -423,11 +525,15 @@ public abstract class ItemListActivity extends BaseActivity {
             mPrevScrollState = scrollState;
         }
 
-        // Do not use: is not called when the scroll completes, appears to be
-        // called multiple time during a scroll, including during flinging.
+        // Is not called when the scroll completes, and appears to be called multiple times
+        // during a scroll, including during flinging. So only use it to track the velocity.
         @Override
         public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
                 int totalItemCount) {
+            if (mListScrolling) {
+                mPrefetcher.onScroll(firstVisibleItem, SystemClock.uptimeMillis());
+                maybePrefetchPages(view);
+            }
         }
 
         /**
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.framework;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.org.ngo.squeezer.Util;
+
+/**
+ * Decoded form of the <code>base</code> record LMS sends with a page of items.
+ * <p>
+ * The base record holds the actions and window fields shared by all the items in the page. It
+ * is decoded once per page, and each {@link Item} then only decodes its own fields on top of it.
+ * <p>
+ * Instances are immutable, so they can be shared by all the items of a page.
+ */
+public final class ItemTemplate {
+    /** The prefix for URLs for downloads and cover art. May be null. */
+    final String urlPrefix;
+
+    /** Window fields shared by the items. May be null. */
+    final Map<String, Object> window;
+
+    /** Default nextWindow for actions of the items. May be null. */
+    final String nextWindow;
+
+    /** Base actions by name. Only actions which take item specific parameters are included. */
+    private final Map<String, ActionTemplate> actions;
+
+    /**
+     * @param baseRecord The <code>base</code> record of a page. May be null.
+     * @param urlPrefix The prefix for URLs for downloads and cover art.
+     */
+    public ItemTemplate(Map<String, Object> baseRecord, String urlPrefix) {
+        this.urlPrefix = urlPrefix;
+        if (baseRecord == null) {
+            window = null;
+            nextWindow = null;
+            actions = Collections.emptyMap();
+            return;
+        }
+
+        Map<String, Object> windowRecord = Util.getRecord(baseRecord, "window");
+        window = (windowRecord != null ? Collections.unmodifiableMap(new HashMap<>(windowRecord)) : null);
+        nextWindow = Util.getString(baseRecord, "nextWindow");
+
+        Map<String, Object> actionsRecord = Util.getRecord(baseRecord, "actions");
+        if (actionsRecord == null) {
+            actions = Collections.emptyMap();
+            return;
+        }
+        Map<String, ActionTemplate> actions = new HashMap<>();
+        for (Map.Entry<String, Object> entry : actionsRecord.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> actionRecord = (Map<String, Object>) entry.getValue();
+                String itemsParams = Util.getString(actionRecord, "itemsParams");
+                if (itemsParams != null) {
+                    actions.put(entry.getKey(), new ActionTemplate(actionRecord, itemsParams));
+                }
+            }
+        }
+        this.actions = actions;
+    }
+
+    /** @return The base action with the supplied name, or null if there is none. */
+    ActionTemplate getAction(String actionName) {
+        return actions.get(actionName);
+    }
+
+    /** Decoded <code>actions</code> entry, which may be either a single action or a list of choices. */
+    static final class ActionTemplate {
+        /** Name of the item field with item specific parameters for the action. Null for item actions. */
+        final String itemsParams;
+
+        /** The action, or null if this has choices. */
+        final JsonActionTemplate action;
+
+        /** The choices, or null if this is a single action. */
+        final JsonActionTemplate[] choices;
+
+        ActionTemplate(Map<String, Object> actionRecord, String itemsParams) {
+            this.itemsParams = itemsParams;
+            Object[] choiceRecords = (Object[]) actionRecord.get("choices");
+            if (choiceRecords != null) {
+                action = null;
+                choices = new JsonActionTemplate[choiceRecords.length];
+                for (int i = 0; i < choiceRecords.length; i++) {
+                    //noinspection unchecked
+                    choices[i] = new JsonActionTemplate((Map<String, Object>) choiceRecords[i]);
+                }
+            } else {
+                action = new JsonActionTemplate(actionRecord);
+                choices = null;
+            }
+        }
+    }
+
+    /** Decoded JSON command, which {@link Item} combines with item fields to form an {@link Action.JsonAction}. */
+    static final class JsonActionTemplate {
+        final String nextWindow;
+
+        /** Command terms. Shared by the actions created from this template, so it must not be changed. */
+        final String[] cmd;
+
+        /** Parameters. May be null. */
+        final Map<String, Object> params;
+
+        /** True if the action has a window record. */
+        final boolean hasWindow;
+
+        /** The <code>isContextMenu</code> field of the window record. */
+        final boolean windowIsContextMenu;
+
+        JsonActionTemplate(Map<String, Object> actionRecord) {
+            nextWindow = Util.getString(actionRecord, "nextWindow");
+            cmd = Util.getStringArray((Object[]) actionRecord.get("cmd"));
+            Map<String, Object> paramsRecord = Util.getRecord(actionRecord, "params");
+            params = (paramsRecord != null ? Collections.unmodifiableMap(paramsRecord) : null);
+            Map<String, Object> windowRecord = Util.getRecord(actionRecord, "window");
+            hasWindow = (windowRecord != null);
+            windowIsContextMenu = hasWindow && Util.getInt(windowRecord, "isContextMenu") != 0;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.framework;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which pages to order ahead of the visible rows of a list.
+ * <p>
+ * The scroll velocity of the list is tracked, and the time from a page is ordered until it is
+ * received is measured. Pages are ordered for where the list is predicted to be when they arrive,
+ * plus as many pages ahead in the scroll direction as are scrolled past during a round trip, so
+ * slow replies (e.g. large pages) make us order further ahead.
+ * <p>
+ * All calls are made from the main thread.
+ */
+class PagePrefetcher {
+    /** Assumed round trip in ms until we have measured one. */
+    private static final float DEFAULT_ROUND_TRIP = 300;
+
+    /** The maximum number of pages to order ahead of the visible rows. */
+    private static final int MAX_PAGES_AHEAD = 8;
+
+    /** Weight of a new sample in the moving averages of velocity and round trip. */
+    private static final float SMOOTHING = 0.3f;
+
+    private final int pageSize;
+
+    /** Smoothed scroll velocity in rows per ms. Negative when scrolling towards the top. */
+    private float velocity;
+
+    /** Direction of the latest scroll, 1 towards the bottom and -1 towards the top. */
+    private int direction = 1;
+
+    private int lastPosition = -1;
+    private long lastScrollTime;
+
+    /** Smoothed time in ms from a page is ordered until it is received. */
+    private float roundTrip = DEFAULT_ROUND_TRIP;
+
+    /** Time the outstanding orders were sent, by page position. */
+    private final Map<Integer, Long> orderTimes = new HashMap<>();
+
+    PagePrefetcher(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Update the scroll velocity.
+     *
+     * @param firstVisiblePosition Position of the first visible row
+     * @param now Current time in ms
+     */
+    void onScroll(int firstVisiblePosition, long now) {
+        if (firstVisiblePosition == lastPosition) {
+            return;
+        }
+        if (lastPosition >= 0 && now > lastScrollTime) {
+            float sample = (float) (firstVisiblePosition - lastPosition) / (now - lastScrollTime);
+            velocity += SMOOTHING * (sample - velocity);
+            direction = (firstVisiblePosition > lastPosition ? 1 : -1);
+        }
+        lastPosition = firstVisiblePosition;
+        lastScrollTime = now;
+    }
+
+    /** The list has stopped scrolling. */
+    void onScrollIdle() {
+        velocity = 0;
+        lastPosition = -1;
+    }
+
+    void onPageOrdered(int pagePosition, long now) {
+        orderTimes.put(pagePosition, now);
+    }
+
+    void onPageReceived(int pagePosition, long now) {
+        Long orderTime = orderTimes.remove(pagePosition);
+        if (orderTime != null) {
+            roundTrip += SMOOTHING * ((now - orderTime) - roundTrip);
+        }
+    }
+
+    void onPageCancelled(int pagePosition) {
+        orderTimes.remove(pagePosition);
+    }
+
+    void clear() {
+        orderTimes.clear();
+        onScrollIdle();
+    }
+
+    /**
+     * @return The number of pages to order ahead of the visible rows. At least one, so the next
+     *     page is ready when the user scrolls.
+     */
+    int getPagesAhead() {
+        int pagesAhead = (int) Math.ceil(Math.abs(velocity) * roundTrip / pageSize);
+        return Math.max(1, Math.min(MAX_PAGES_AHEAD, pagesAhead));
+    }
+
+    /**
+     * Calculate the range of rows to order, given the currently visible rows.
+     *
+     * @return First and last row (inclusive) to order. Rows we expect to have scrolled past
+     *     when the pages arrive are not included.
+     */
+    int[] getPrefetchRange(int firstVisiblePosition, int visibleCount, int count) {
+        int lead = Math.round(velocity * roundTrip);
+        int ahead = getPagesAhead() * pageSize;
+        int first, last;
+        if (direction > 0) {
+            first = firstVisiblePosition + Math.max(0, lead);
+            last = firstVisiblePosition + visibleCount + Math.max(0, lead) + ahead;
+        } else {
+            first = firstVisiblePosition + Math.min(0, lead) - ahead;
+            last = firstVisiblePosition + visibleCount + Math.min(0, lead);
+        }
+        return new int[]{Math.max(0, first), Math.min(count - 1, last)};
+    }
+}
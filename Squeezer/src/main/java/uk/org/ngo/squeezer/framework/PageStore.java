@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.framework;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Sparse list of items, where only a bounded number of items are kept in memory.
+ * <p>
+ * The list is split into segments, initially one for each page. A segment is either loaded,
+ * holding its items (some of which may not have been received yet), or not loaded. When more
+ * than the allowed number of items are loaded, the least recently used segment is unloaded,
+ * and the {@link EvictionListener} is told, so the items can be ordered again when needed.
+ * <p>
+ * Positions are mapped to segments with a Fenwick tree of the segment lengths, so finding,
+ * inserting and removing an item takes O(log n) plus the size of a segment, instead of shifting
+ * all the following items.
+ *
+ * @param <T> Type of the items
+ */
+class PageStore<T> {
+
+    /** Called when a range of items is unloaded. */
+    interface EvictionListener {
+        void onEvicted(int start, int length);
+    }
+
+    private static class Segment {
+        /** Index of the segment in {@link #segments}, updated by {@link #rebuildTree()}. */
+        int index;
+
+        int length;
+
+        /** The items, or null if the segment is not loaded. */
+        Object[] items;
+
+        Segment(int length) {
+            this.length = length;
+        }
+    }
+
+    private final int pageSize;
+
+    private final int maxLoadedItems;
+
+    private final EvictionListener evictionListener;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    /** Fenwick tree (1-based) of the segment lengths. */
+    private int[] tree = new int[1];
+
+    private int count;
+
+    /** Loaded segments, least recently used first. */
+    private final LinkedHashMap<Segment, Segment> loaded = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int loadedItems;
+
+    /**
+     * @param pageSize Initial length of segments
+     * @param maxLoadedItems The number of items to keep in memory
+     * @param evictionListener Told when items are unloaded
+     */
+    PageStore(int pageSize, int maxLoadedItems, EvictionListener evictionListener) {
+        this.pageSize = pageSize;
+        this.maxLoadedItems = maxLoadedItems;
+        this.evictionListener = evictionListener;
+    }
+
+    int size() {
+        return count;
+    }
+
+    void clear() {
+        segments.clear();
+        loaded.clear();
+        loadedItems = 0;
+        count = 0;
+        tree = new int[1];
+    }
+
+    /**
+     * Set the number of items. New positions are empty, and items beyond the new size are
+     * discarded.
+     */
+    void setSize(int size) {
+        while (count < size) {
+            Segment last = (segments.isEmpty() ? null : segments.get(segments.size() - 1));
+            int fill = Math.min(size - count, (last != null && last.length < pageSize) ? pageSize - last.length : pageSize);
+            if (last != null && last.length < pageSize) {
+                if (last.items != null) {
+                    last.items = ensureCapacity(last.items, last.length + fill);
+                    loadedItems += fill;
+                }
+                last.length += fill;
+            } else {
+                segments.add(new Segment(fill));
+            }
+            count += fill;
+        }
+        while (count > size) {
+            Segment last = segments.get(segments.size() - 1);
+            int trim = Math.min(count - size, last.length);
+            if (trim == last.length) {
+                segments.remove(segments.size() - 1);
+                unload(last);
+            } else {
+                if (last.items != null) {
+                    for (int i = last.length - trim; i < last.length; i++) {
+                        last.items[i] = null;
+                    }
+                    loadedItems -= trim;
+                }
+                last.length -= trim;
+            }
+            count -= trim;
+        }
+        rebuildTree();
+    }
+
+    T get(int position) {
+        int index = segmentIndex(position);
+        Segment segment = segments.get(index);
+        if (segment.items == null) {
+            return null;
+        }
+        loaded.get(segment); // Mark as recently used
+        //noinspection unchecked
+        return (T) segment.items[position - start(index)];
+    }
+
+    void set(int position, T item) {
+        int index = segmentIndex(position);
+        Segment segment = segments.get(index);
+        load(segment);
+        segment.items[position - start(index)] = item;
+        evict(segment);
+    }
+
+    /**
+     * Insert an item at the given position, moving the following items up by one.
+     *
+     * @param position Position of the new item, from 0 to {@link #size()} inclusive
+     */
+    void insert(int position, T item) {
+        int index = (position == count && count > 0 ? segments.size() - 1 : segmentIndex(position));
+        if (index == segments.size()) {
+            segments.add(new Segment(0));
+            rebuildTree();
+        }
+        Segment segment = segments.get(index);
+        int offset = position - start(index);
+        load(segment);
+        segment.items = ensureCapacity(segment.items, segment.length + 1);
+        System.arraycopy(segment.items, offset, segment.items, offset + 1, segment.length - offset);
+        segment.items[offset] = item;
+        segment.length++;
+        loadedItems++;
+        count++;
+        add(index, 1);
+
+        if (segment.length > 2 * pageSize) {
+            split(index);
+        }
+        evict(segment);
+    }
+
+    /**
+     * Remove the item at the given position, moving the following items down by one.
+     */
+    void remove(int position) {
+        int index = segmentIndex(position);
+        Segment segment = segments.get(index);
+        int offset = position - start(index);
+        if (segment.items != null) {
+            System.arraycopy(segment.items, offset + 1, segment.items, offset, segment.length - offset - 1);
+            segment.items[segment.length - 1] = null;
+            loadedItems--;
+        }
+        segment.length--;
+        count--;
+        if (segment.length == 0) {
+            segments.remove(index);
+            unload(segment);
+            rebuildTree();
+        } else {
+            add(index, -1);
+        }
+    }
+
+    private void split(int index) {
+        Segment segment = segments.get(index);
+        Segment tail = new Segment(segment.length - pageSize);
+        tail.items = new Object[Math.max(tail.length, pageSize)];
+        System.arraycopy(segment.items, pageSize, tail.items, 0, tail.length);
+        for (int i = pageSize; i < segment.length; i++) {
+            segment.items[i] = null;
+        }
+        segment.length = pageSize;
+        segments.add(index + 1, tail);
+        loaded.put(tail, tail);
+        rebuildTree();
+    }
+
+    private void load(Segment segment) {
+        if (segment.items == null) {
+            segment.items = new Object[Math.max(segment.length, pageSize)];
+            loadedItems += segment.length;
+        }
+        loaded.put(segment, segment);
+    }
+
+    private void unload(Segment segment) {
+        if (loaded.remove(segment) != null) {
+            loadedItems -= segment.length;
+        }
+        segment.items = null;
+    }
+
+    /** Unload least recently used segments until we are within the budget. */
+    private void evict(Segment keep) {
+        Iterator<Segment> it = loaded.keySet().iterator();
+        while (loadedItems > maxLoadedItems && it.hasNext()) {
+            Segment segment = it.next();
+            if (segment == keep) {
+                continue;
+            }
+            it.remove();
+            loadedItems -= segment.length;
+            segment.items = null;
+            if (evictionListener != null) {
+                evictionListener.onEvicted(start(segment.index), segment.length);
+            }
+        }
+    }
+
+    private static Object[] ensureCapacity(Object[] items, int capacity) {
+        if (items.length >= capacity) {
+            return items;
+        }
+        Object[] newItems = new Object[Math.max(capacity, items.length * 3 / 2)];
+        System.arraycopy(items, 0, newItems, 0, items.length);
+        return newItems;
+    }
+
+    /** @return Position of the first item in the segment with the given index. */
+    private int start(int index) {
+        int sum = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /** @return Index of the segment holding the given position. */
+    private int segmentIndex(int position) {
+        if (position < 0 || position >= count) {
+            if (position == 0 && count == 0) {
+                return 0;
+            }
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + count);
+        }
+        int index = 0;
+        int remaining = position;
+        for (int step = Integer.highestOneBit(segments.size()); step > 0; step >>= 1) {
+            if (index + step <= segments.size() && tree[index + step] <= remaining) {
+                index += step;
+                remaining -= tree[index];
+            }
+        }
+        return index;
+    }
+
+    private void add(int index, int delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /** Rebuild the tree, and the segment indices, after segments have been added or removed. */
+    private void rebuildTree() {
+        tree = new int[segments.size() + 1];
+        for (int i = 1; i < tree.length; i++) {
+            Segment segment = segments.get(i - 1);
+            segment.index = i - 1;
+            tree[i] += segment.length;
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
@@ -239,11 +239,51 @@ public class CurrentPlaylistActivity extends PluginListActivity {
             return;
         }
         if (event.player.equals(getService().getActivePlayer())) {
-            clearAndReOrderItems();
+            // Edit the list we have if we know how the playlist changed, otherwise fetch it again
+            int count = event.player.getPlayerState().getCurrentPlaylistTracksNum();
+            if (event.edit != null && applyEdit(event.edit, count)) {
+                forgetPagesFrom(Math.min(event.edit.position, event.edit.toPosition));
+            } else {
+                clearAndReOrderItems();
+            }
+            getItemAdapter().setSelectedIndex(event.player.getPlayerState().getCurrentPlaylistIndex());
             getItemAdapter().notifyDataSetChanged();
         }
     }
 
+    /**
+     * Apply the change to the playlist to the items in the list.
+     *
+     * @param count The number of tracks in the changed playlist
+     * @return False if the list doesn't match the playlist before the change
+     */
+    private boolean applyEdit(PlaylistChanged.Edit edit, int count) {
+        ItemAdapter<Plugin> adapter = getItemAdapter();
+        switch (edit.type) {
+            case INSERT:
+                if (adapter.getCount() != count - edit.count) {
+                    return false;
+                }
+                adapter.insertEmptyItems(edit.position, edit.count);
+                return true;
+            case DELETE:
+                if (adapter.getCount() != count + 1) {
+                    return false;
+                }
+                adapter.removeItem(edit.position);
+                return true;
+            case MOVE:
+                if (adapter.getCount() != count) {
+                    return false;
+                }
+                Plugin item = adapter.getItem(edit.position);
+                adapter.removeItem(edit.position);
+                adapter.insertItem(edit.toPosition, item);
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<Plugin> items, Class<Plugin> dataType) {
         for (Plugin item : items) {
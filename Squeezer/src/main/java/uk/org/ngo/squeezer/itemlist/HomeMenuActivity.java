@@ -21,9 +21,6 @@ import android.app.Activity;
 import android.content.Intent;
 import androidx.annotation.NonNull;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import uk.org.ngo.squeezer.Preferences;
@@ -64,29 +61,10 @@ public class HomeMenuActivity extends PluginListActivity {
                 clearItemAdapter();
             }
         });
-        List<Plugin> menu = getMenuNode(parent.getId(), event.menuItems);
+        List<Plugin> menu = event.menu.getChildren(parent.getId());
         onItemsReceived(menu.size(), 0, menu, Plugin.class);
     }
 
-    private List<Plugin> getMenuNode(String node, List<Plugin> homeMenu) {
-        ArrayList<Plugin> menu = new ArrayList<>();
-        for (Plugin item : homeMenu) {
-            if (node.equals(item.getNode())) {
-                menu.add(item);
-            }
-        }
-        Collections.sort(menu, new Comparator<Plugin>() {
-            @Override
-            public int compare(Plugin o1, Plugin o2) {
-                if (o1.getWeight() == o2.getWeight()) {
-                    return o1.getName().compareTo(o2.getName());
-                }
-                return o1.getWeight() - o2.getWeight();
-            }
-        });
-        return menu;
-    }
-
     public static void show(Activity activity, Item plugin) {
         final Intent intent = new Intent(activity, HomeMenuActivity.class);
         intent.putExtra(Plugin.class.getName(), plugin);
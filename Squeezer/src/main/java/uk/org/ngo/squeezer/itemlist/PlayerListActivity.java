@@ -277,7 +277,7 @@ public class PlayerListActivity extends ItemListActivity implements
 
     @Override
     public String getPlayTrackAlbum() {
-        return currentPlayer.getPlayerState().prefs.get(Player.Pref.PLAY_TRACK_ALBUM);
+        return currentPlayer.getPlayerState().getPrefs().get(Player.Pref.PLAY_TRACK_ALBUM);
     }
 
     @Override
@@ -287,7 +287,7 @@ public class PlayerListActivity extends ItemListActivity implements
 
     @Override
     public String getDefeatDestructiveTTP() {
-        return currentPlayer.getPlayerState().prefs.get(Player.Pref.DEFEAT_DESTRUCTIVE_TTP);
+        return currentPlayer.getPlayerState().getPrefs().get(Player.Pref.DEFEAT_DESTRUCTIVE_TTP);
     }
 
     @Override
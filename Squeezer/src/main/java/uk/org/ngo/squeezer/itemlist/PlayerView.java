@@ -120,9 +120,9 @@ public class PlayerView extends BaseItemView<Player> {
         // Enable player sync menu options if there's more than one player.
         menu.findItem(R.id.player_sync).setVisible(activity.mResultsAdapter.mPlayerCount > 1);
 
-        menu.findItem(R.id.play_track_album).setVisible(playerState.prefs.containsKey(Player.Pref.PLAY_TRACK_ALBUM));
+        menu.findItem(R.id.play_track_album).setVisible(playerState.getPrefs().containsKey(Player.Pref.PLAY_TRACK_ALBUM));
 
-        menu.findItem(R.id.defeat_destructive_ttp).setVisible(playerState.prefs.containsKey(Player.Pref.DEFEAT_DESTRUCTIVE_TTP));
+        menu.findItem(R.id.defeat_destructive_ttp).setVisible(playerState.getPrefs().containsKey(Player.Pref.DEFEAT_DESTRUCTIVE_TTP));
 
         popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
             @Override
@@ -21,7 +21,9 @@ import androidx.annotation.NonNull;
 
 import java.util.Map;
 
+import uk.org.ngo.squeezer.Util;
 import uk.org.ngo.squeezer.framework.Item;
+import uk.org.ngo.squeezer.framework.ItemTemplate;
 
 
 public class CurrentPlaylistItem extends Item {
@@ -48,11 +50,23 @@ public class CurrentPlaylistItem extends Item {
         return album;
     }
 
+    /** The record this item was made from, so an unchanged player status can be detected. */
+    private final Map<String, Object> record;
+
+    Map<String, Object> getRecord() {
+        return record;
+    }
+
     public CurrentPlaylistItem(Map<String, Object> record) {
-        super(record);
+        this(record, new ItemTemplate(Util.getRecord(record, "base"), null));
+    }
+
+    public CurrentPlaylistItem(Map<String, Object> record, ItemTemplate base) {
+        super(record, base);
         track = getStringOrEmpty(record, "track");
         artist = getStringOrEmpty(record, "artist");
         album = getStringOrEmpty(record, "album");
+        this.record = record;
     }
 
     public static final Creator<CurrentPlaylistItem> CREATOR = new Creator<CurrentPlaylistItem>() {
@@ -72,6 +86,7 @@ public class CurrentPlaylistItem extends Item {
         track = source.readString();
         artist = source.readString();
         album = source.readString();
+        record = null;
     }
 
     @Override
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The home menu tree as received from the server.
+ * <p>
+ * Items are indexed by id, and the items of each node are kept sorted as they are shown, by
+ * weight and then by name, so showing a node doesn't need to search or sort the menu.
+ * <p>
+ * A home menu is immutable, so it can be shared between threads. Changes create a new home
+ * menu, which shares the item lists of the nodes which didn't change.
+ */
+public class HomeMenu {
+    public static final HomeMenu EMPTY = new HomeMenu(new HashMap<String, Plugin>(), new HashMap<String, List<Plugin>>());
+
+    private static final Comparator<Plugin> ORDER = new Comparator<Plugin>() {
+        @Override
+        public int compare(Plugin o1, Plugin o2) {
+            if (o1.getWeight() == o2.getWeight()) {
+                return o1.getName().compareTo(o2.getName());
+            }
+            return o1.getWeight() - o2.getWeight();
+        }
+    };
+
+    /** Items by id. */
+    private final Map<String, Plugin> items;
+
+    /** The sorted items of each node, by the id of the node. */
+    private final Map<String, List<Plugin>> nodes;
+
+    private HomeMenu(Map<String, Plugin> items, Map<String, List<Plugin>> nodes) {
+        this.items = items;
+        this.nodes = nodes;
+    }
+
+    /** @return The item with the given id, or null if it is not in the menu. */
+    @Nullable
+    public Plugin get(String id) {
+        return items.get(id);
+    }
+
+    /** @return The items of the given node, in the order they are shown. */
+    @NonNull
+    public List<Plugin> getChildren(String node) {
+        List<Plugin> children = nodes.get(node);
+        return (children != null ? children : Collections.<Plugin>emptyList());
+    }
+
+    /** @return All the items in the menu, in no particular order. */
+    @NonNull
+    public Collection<Plugin> getItems() {
+        return Collections.unmodifiableCollection(items.values());
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return A home menu with the given items added. Items replace the item with the same id.
+     */
+    @NonNull
+    public HomeMenu with(@NonNull Collection<Plugin> added) {
+        return change(added, Collections.<Plugin>emptyList());
+    }
+
+    /**
+     * @return A home menu without the items with the same id as the given items.
+     */
+    @NonNull
+    public HomeMenu without(@NonNull Collection<Plugin> removed) {
+        return change(Collections.<Plugin>emptyList(), removed);
+    }
+
+    private HomeMenu change(Collection<Plugin> added, Collection<Plugin> removed) {
+        Map<String, Plugin> newItems = new HashMap<>(items);
+        Map<String, List<Plugin>> changedNodes = new HashMap<>();
+
+        for (Plugin item : removed) {
+            Plugin previous = newItems.remove(item.getId());
+            if (previous != null) {
+                changedNode(changedNodes, previous.getNode()).remove(previous);
+            }
+        }
+        for (Plugin item : added) {
+            Plugin previous = newItems.put(item.getId(), item);
+            if (previous != null) {
+                changedNode(changedNodes, previous.getNode()).remove(previous);
+            }
+            changedNode(changedNodes, item.getNode()).add(item);
+        }
+
+        Map<String, List<Plugin>> newNodes = new HashMap<>(nodes);
+        for (Map.Entry<String, List<Plugin>> entry : changedNodes.entrySet()) {
+            List<Plugin> children = entry.getValue();
+            if (children.isEmpty()) {
+                newNodes.remove(entry.getKey());
+            } else {
+                Collections.sort(children, ORDER);
+                newNodes.put(entry.getKey(), Collections.unmodifiableList(children));
+            }
+        }
+
+        return new HomeMenu(newItems, newNodes);
+    }
+
+    /** @return A copy of the items of the given node, which can be changed. */
+    private List<Plugin> changedNode(Map<String, List<Plugin>> changedNodes, String node) {
+        List<Plugin> children = changedNodes.get(node);
+        if (children == null) {
+            children = new ArrayList<>(getChildren(node));
+            changedNodes.put(node, children);
+        }
+        return children;
+    }
+
+    @Override
+    public String toString() {
+        return "HomeMenu{" +
+                "items=" + items.values() +
+                '}';
+    }
+}
@@ -29,7 +29,9 @@ import com.google.common.hash.Hashing;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import uk.org.ngo.squeezer.Util;
 import uk.org.ngo.squeezer.framework.Item;
@@ -52,7 +54,8 @@ public class Player extends Item implements Comparable {
     /**  A hash of the player's ID. */
     private final HashCode mHashCode;
 
-    private PlayerState mPlayerState = new PlayerState();
+    /** The latest published state of the player. */
+    private final AtomicReference<PlayerState> mPlayerState = new AtomicReference<>(new PlayerState());
 
     /** Is the player connected? */
     private boolean mConnected;
@@ -86,12 +89,14 @@ public class Player extends Item implements Comparable {
         mConnected = getInt(record, "connected") == 1;
         mHashCode = calcHashCode();
 
+        Map<String, String> prefs = new HashMap<>();
         if (record.containsKey(Pref.PLAY_TRACK_ALBUM)) {
-            mPlayerState.prefs.put(Pref.PLAY_TRACK_ALBUM, Util.getString(record, Pref.PLAY_TRACK_ALBUM));
+            prefs.put(Pref.PLAY_TRACK_ALBUM, Util.getString(record, Pref.PLAY_TRACK_ALBUM));
         }
         if (record.containsKey(Pref.DEFEAT_DESTRUCTIVE_TTP)) {
-            mPlayerState.prefs.put(Pref.DEFEAT_DESTRUCTIVE_TTP, Util.getString(record, Pref.DEFEAT_DESTRUCTIVE_TTP));
+            prefs.put(Pref.DEFEAT_DESTRUCTIVE_TTP, Util.getString(record, Pref.DEFEAT_DESTRUCTIVE_TTP));
         }
+        mPlayerState.get().setPrefs(prefs);
     }
 
     private HashCode calcHashCode() {
@@ -139,13 +144,24 @@ public class Player extends Item implements Comparable {
         return mConnected;
     }
 
+    /**
+     * @return The latest state of the player. It is a snapshot which is not changed by later
+     *     status updates, so read it once to get consistent values.
+     */
     @NonNull
     public PlayerState getPlayerState() {
-        return mPlayerState;
+        return mPlayerState.get();
     }
 
+    /**
+     * Publish a new state of the player. The state must not be changed after this.
+     * <p>
+     * To change the state, hold the lock on this player while changing a
+     * {@link PlayerState#copy()} of the current state and publishing it, so concurrent changes
+     * are not lost.
+     */
     public void setPlayerState(@NonNull PlayerState playerState) {
-        mPlayerState = playerState;
+        mPlayerState.set(playerState);
     }
 
     public static final Creator<Player> CREATOR = new Creator<Player>() {
@@ -200,17 +216,15 @@ public class Player extends Item implements Comparable {
     }
 
     public SongTimeChanged getTrackElapsed() {
-        double now = SystemClock.elapsedRealtime() / 1000.0;
-        double trackCorrection = mPlayerState.rate * (now - mPlayerState.statusSeen);
-        double trackElapsed = (trackCorrection <= 0 ? mPlayerState.getCurrentTimeSecond() : mPlayerState.getCurrentTimeSecond() + trackCorrection);
-
-        return new SongTimeChanged(this, (int) trackElapsed, mPlayerState.getCurrentSongDuration());
+        PlayerState playerState = getPlayerState();
+        return new SongTimeChanged(this, (int) playerState.getTrackElapsed(), playerState.getCurrentSongDuration());
     }
 
     public int getSleepingIn() {
         double now = SystemClock.elapsedRealtime() / 1000.0;
-        double correction = now - mPlayerState.statusSeen;
-        double remaining = (correction <= 0 ? mPlayerState.getSleep() : mPlayerState.getSleep() - correction);
+        PlayerState playerState = getPlayerState();
+        double correction = now - playerState.statusSeen;
+        double remaining = (correction <= 0 ? playerState.getSleep() : playerState.getSleep() - correction);
 
         return (int) remaining;
     }
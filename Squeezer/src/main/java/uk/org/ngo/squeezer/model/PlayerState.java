@@ -19,16 +19,20 @@ package uk.org.ngo.squeezer.model;
 
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringDef;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,11 +43,54 @@ import uk.org.ngo.squeezer.framework.EnumIdLookup;
 import uk.org.ngo.squeezer.framework.EnumWithId;
 
 
+/**
+ * The state of a player, as reported by the server.
+ * <p>
+ * A state is published by {@link Player#setPlayerState(PlayerState)} and must not be changed
+ * after that, so it can be read from any thread without locking. To change the state, change a
+ * {@link #copy()} and publish it. The copy shares the song, the synced players and the player
+ * preferences with the original, which are not changed in place either.
+ */
 public class PlayerState implements Parcelable {
 
     public PlayerState() {
     }
 
+    private PlayerState(PlayerState other) {
+        version = other.version + 1;
+        poweredOn = other.poweredOn;
+        playStatus = other.playStatus;
+        shuffleStatus = other.shuffleStatus;
+        repeatStatus = other.repeatStatus;
+        currentSong = other.currentSong;
+        currentPlaylist = other.currentPlaylist;
+        currentPlaylistTimestamp = other.currentPlaylistTimestamp;
+        currentPlaylistTracksNum = other.currentPlaylistTracksNum;
+        currentPlaylistIndex = other.currentPlaylistIndex;
+        remote = other.remote;
+        waitingToPlay = other.waitingToPlay;
+        rate = other.rate;
+        currentTimeSecond = other.currentTimeSecond;
+        currentSongDuration = other.currentSongDuration;
+        statusSeen = other.statusSeen;
+        currentVolume = other.currentVolume;
+        sleepDuration = other.sleepDuration;
+        sleep = other.sleep;
+        mSyncMaster = other.mSyncMaster;
+        mSyncSlaves = other.mSyncSlaves;
+        mSyncSlavesString = other.mSyncSlavesString;
+        mPlayerSubscriptionType = other.mPlayerSubscriptionType;
+        prefs = other.prefs;
+    }
+
+    /**
+     * @return A copy of this state to change, with the next version number.
+     */
+    @NonNull
+    public PlayerState copy() {
+        return new PlayerState(this);
+    }
+
     public static final Creator<PlayerState> CREATOR = new Creator<PlayerState>() {
         @Override
         public PlayerState[] newArray(int size) {
@@ -69,11 +116,13 @@ public class PlayerState implements Parcelable {
         currentSongDuration = source.readInt();
         currentVolume = source.readInt();
         sleepDuration = source.readInt();
-        sleep = source.readInt();
+        sleep = source.readDouble();
         mSyncMaster = source.readString();
-        source.readStringList(mSyncSlaves);
+        mSyncSlaves = ImmutableList.copyOf(source.createStringArrayList());
+        mSyncSlavesString = Joiner.on(',').join(mSyncSlaves);
         mPlayerSubscriptionType = PlayerSubscriptionType.valueOf(source.readString());
-        prefs = source.readHashMap(getClass().getClassLoader());
+        //noinspection unchecked
+        setPrefs(source.readHashMap(getClass().getClassLoader()));
     }
 
     @Override
@@ -102,6 +151,9 @@ public class PlayerState implements Parcelable {
         return 0;
     }
 
+    /** Incremented for each copy, so readers can tell if the state has changed. */
+    private long version;
+
     private boolean poweredOn;
 
     private @PlayState String playStatus;
@@ -147,13 +199,33 @@ public class PlayerState implements Parcelable {
     /** The players synced to this player. */
     private ImmutableList<String> mSyncSlaves = new ImmutableList.Builder<String>().build();
 
+    /** The comma separated list {@link #mSyncSlaves} was made from. */
+    @NonNull
+    private String mSyncSlavesString = "";
+
+    private static final Splitter mCommaSplitter = Splitter.on(',').omitEmptyStrings();
+
     /** How the server is subscribed to the player's status changes. */
     @NonNull
     private PlayerSubscriptionType mPlayerSubscriptionType = PlayerSubscriptionType.NOTIFY_NONE;
 
     /** Map of current values of our the playerprefs we track. See the specific SlimClient */
     @NonNull
-    public Map<String, String> prefs = new HashMap<>();
+    private Map<String, String> prefs = Collections.emptyMap();
+
+    public long getVersion() {
+        return version;
+    }
+
+    /** @return The player preferences we track. The map can't be changed. */
+    @NonNull
+    public Map<String, String> getPrefs() {
+        return prefs;
+    }
+
+    public void setPrefs(@NonNull Map<String, String> prefs) {
+        this.prefs = Collections.unmodifiableMap(new HashMap<>(prefs));
+    }
 
     public boolean isPlaying() {
         return PLAY_STATE_PLAY.equals(playStatus);
@@ -228,6 +300,14 @@ public class PlayerState implements Parcelable {
         return currentSong;
     }
 
+    /**
+     * @return Whether the current song was made from the given record, in which case it doesn't
+     *     need to be made again.
+     */
+    public boolean isCurrentSong(Map<String, Object> record) {
+        return currentSong != null && record.equals(currentSong.getRecord());
+    }
+
     public boolean setCurrentSong(CurrentPlaylistItem song) {
         if (song.equals(currentSong))
             return false;
@@ -290,6 +370,23 @@ public class PlayerState implements Parcelable {
         return currentTimeSecond;
     }
 
+    /**
+     * The server only reports the position in the song when it changes status, so extrapolate it
+     * from the position and playback rate at the time of the latest status.
+     *
+     * @return The current position in the song, in seconds.
+     */
+    public double getTrackElapsed() {
+        if (!isPlaying()) {
+            return currentTimeSecond;
+        }
+
+        double now = SystemClock.elapsedRealtime() / 1000.0;
+        double correction = rate * (now - statusSeen);
+        double elapsed = (correction <= 0 ? currentTimeSecond : currentTimeSecond + correction);
+        return (currentSongDuration > 0 ? Math.min(elapsed, currentSongDuration) : elapsed);
+    }
+
     public boolean setCurrentTimeSecond(double value) {
         if (value == currentTimeSecond)
             return false;
@@ -376,9 +473,23 @@ public class PlayerState implements Parcelable {
             return false;
 
         mSyncSlaves = ImmutableList.copyOf(syncSlaves);
+        mSyncSlavesString = Joiner.on(',').join(mSyncSlaves);
         return true;
     }
 
+    /**
+     * Set the synced players from the comma separated list in the player status. The list is
+     * only split when it differs from the one we have.
+     */
+    public boolean setSyncSlaves(@NonNull String syncSlaves) {
+        if (syncSlaves.equals(mSyncSlavesString))
+            return false;
+
+        boolean changed = setSyncSlaves(mCommaSplitter.splitToList(syncSlaves));
+        mSyncSlavesString = syncSlaves;
+        return changed;
+    }
+
     public ImmutableList<String> getSyncSlaves() {
         return mSyncSlaves;
     }
@@ -401,7 +512,8 @@ public class PlayerState implements Parcelable {
     @Override
     public String toString() {
         return "PlayerState{" +
-                "poweredOn=" + poweredOn +
+                "version=" + version +
+                ", poweredOn=" + poweredOn +
                 ", playStatus='" + playStatus + '\'' +
                 ", shuffleStatus=" + shuffleStatus +
                 ", repeatStatus=" + repeatStatus +
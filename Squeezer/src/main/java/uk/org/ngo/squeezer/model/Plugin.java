@@ -26,6 +26,7 @@ import java.util.Map;
 import uk.org.ngo.squeezer.R;
 import uk.org.ngo.squeezer.Squeezer;
 import uk.org.ngo.squeezer.framework.Item;
+import uk.org.ngo.squeezer.framework.ItemTemplate;
 import uk.org.ngo.squeezer.framework.Window;
 
 
@@ -40,6 +41,10 @@ public class Plugin extends Item {
         super(record);
     }
 
+    public Plugin(Map<String, Object> record, ItemTemplate base) {
+        super(record, base);
+    }
+
     public static final Creator<Plugin> CREATOR = new Creator<Plugin>() {
         @Override
         public Plugin[] newArray(int size) {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+
+import uk.org.ngo.squeezer.BuildConfig;
+import uk.org.ngo.squeezer.NowPlayingFragment;
+import uk.org.ngo.squeezer.R;
+import uk.org.ngo.squeezer.itemlist.IServiceItemListCallback;
+import uk.org.ngo.squeezer.model.Player;
+import uk.org.ngo.squeezer.model.PlayerState;
+import uk.org.ngo.squeezer.model.Plugin;
+import uk.org.ngo.squeezer.util.ImageFetcher;
+
+/**
+ * Fetches the artwork for the next tracks in the current playlist in the background, so the
+ * notification, lock screen and now playing screen can show it as soon as the track changes.
+ * <p>
+ * This is only done on unmetered Wi-Fi, since the user may never get to hear the tracks.
+ */
+class ArtworkPrefetcher implements IServiceItemListCallback<Plugin> {
+    private static final String TAG = "ArtworkPrefetcher";
+
+    /** The number of tracks after the current track to fetch artwork for. */
+    private static final int NEXT_TRACKS = 3;
+
+    private final Context context;
+
+    private final SlimDelegate delegate;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Identifies the player, playlist and track we last prefetched for. */
+    private String lastPrefetch;
+
+    ArtworkPrefetcher(Context context, SlimDelegate delegate) {
+        this.context = context;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Order the next tracks of the player's current playlist, if we haven't already done so for
+     * the current track, and we are on unmetered Wi-Fi.
+     */
+    synchronized void prefetch(Player player) {
+        PlayerState playerState = player.getPlayerState();
+        int start = playerState.getCurrentPlaylistIndex() + 1;
+        int count = Math.min(NEXT_TRACKS, playerState.getCurrentPlaylistTracksNum() - start);
+        if (count <= 0) {
+            return;
+        }
+
+        String prefetch = player.getId() + ":" + playerState.getCurrentPlaylistTimestamp() + ":" + start;
+        if (prefetch.equals(lastPrefetch) || !isUnmeteredWifi()) {
+            return;
+        }
+        lastPrefetch = prefetch;
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "prefetch " + count + " tracks from " + start + " for " + player.getName());
+        }
+        delegate.requestItems(player, start, count, this).cmd("status").param("menu", "menu").exec();
+    }
+
+    /** Forget what we prefetched, e.g. when the connection to the server is lost. */
+    synchronized void reset() {
+        lastPrefetch = null;
+    }
+
+    private boolean isUnmeteredWifi() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected()
+                && networkInfo.getType() == ConnectivityManager.TYPE_WIFI
+                && !connectivityManager.isActiveNetworkMetered();
+    }
+
+    @Override
+    public void onItemsReceived(int count, int start, Map<String, Object> parameters, final List<Plugin> items, Class<Plugin> dataType) {
+        // Image loading tasks are started from the main thread
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Plugin item : items) {
+                    if (item.hasArtwork()) {
+                        prefetchImage(item);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetch the artwork of the item at the sizes used when it becomes the current track: the
+     * notification, and the now playing screen, see {@link NowPlayingFragment#getArtworkSize}.
+     */
+    private void prefetchImage(Plugin item) {
+        ImageFetcher imageFetcher = ImageFetcher.getInstance(context);
+        Resources resources = context.getResources();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            imageFetcher.prefetchImage(item.getIcon(),
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                    resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height));
+        } else {
+            imageFetcher.prefetchImage(item.getIcon(),
+                    resources.getDimensionPixelSize(R.dimen.album_art_icon_normal_notification_width),
+                    resources.getDimensionPixelSize(R.dimen.album_art_icon_normal_notification_height));
+            imageFetcher.prefetchImage(item.getIcon(),
+                    resources.getDimensionPixelSize(R.dimen.album_art_icon_expanded_notification_width),
+                    resources.getDimensionPixelSize(R.dimen.album_art_icon_expanded_notification_height));
+        }
+
+        int size = NowPlayingFragment.getArtworkSize(resources.getDisplayMetrics());
+        imageFetcher.prefetchImage(item.getIcon(), size, size);
+    }
+
+    @Override
+    public Object getClient() {
+        return context;
+    }
+}
@@ -19,8 +19,7 @@ package uk.org.ngo.squeezer.service;
 import android.os.SystemClock;
 import androidx.annotation.NonNull;
 
-import com.google.common.base.Splitter;
-
+import java.io.File;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -57,9 +56,12 @@ abstract class BaseClient implements SlimClient {
     /** The prefix for URLs for downloads and cover art. */
     String mUrlPrefix;
 
+    /** Infers edits of the current playlist from the commands we send. */
+    final PlaylistEditTracker mPlaylistEditTracker = new PlaylistEditTracker();
+
     BaseClient(@NonNull EventBus eventBus) {
         mEventBus = eventBus;
-        mConnectionState = new ConnectionState(eventBus);
+        mConnectionState = new ConnectionState(eventBus, new File(Squeezer.getContext().getCacheDir(), "connection_state"));
     }
 
     @Override
@@ -75,6 +77,12 @@ abstract class BaseClient implements SlimClient {
 
     protected abstract <T extends Item> void internalRequestItems(BrowseRequest<T> browseRequest);
 
+    /**
+     * @return True if a volume set by the user has not yet been confirmed by the server, so the
+     *     volume shown must not be changed by player status sent before the server got it.
+     */
+    protected abstract boolean isVolumeChangePending(Player player);
+
     @Override
     public String getUsername() {
         return username.get();
@@ -88,42 +96,70 @@ abstract class BaseClient implements SlimClient {
 
 
     void parseStatus(final Player player, CurrentPlaylistItem currentSong, Map<String, Object> tokenMap) {
-        PlayerState playerState = player.getPlayerState();
-        playerState.statusSeen = SystemClock.elapsedRealtime() / 1000.0;
-
-        boolean changedPower = playerState.setPoweredOn(Util.getInt(tokenMap, "power") == 1);
-        boolean changedShuffleStatus = playerState.setShuffleStatus(Util.getString(tokenMap, "playlist shuffle"));
-        boolean changedRepeatStatus = playerState.setRepeatStatus(Util.getString(tokenMap, "playlist repeat"));
-        boolean changedPlaylist = playerState.setCurrentPlaylistTimestamp(Util.getLong(tokenMap, "playlist_timestamp"));
-        playerState.setCurrentPlaylistTracksNum(Util.getInt(tokenMap, "playlist_tracks"));
-        playerState.setCurrentPlaylistIndex(Util.getInt(tokenMap, "playlist_cur_index"));
-        playerState.setCurrentPlaylist(Util.getString(tokenMap, "playlist_name"));
-        boolean changedSleep = playerState.setSleep(Util.getInt(tokenMap, "will_sleep_in"));
-        boolean changedSleepDuration = playerState.setSleepDuration(Util.getInt(tokenMap, "sleep"));
         if (currentSong == null) currentSong = new CurrentPlaylistItem(tokenMap);
-        boolean changedSong = playerState.setCurrentSong(currentSong);
-        playerState.setRemote(Util.getInt(tokenMap, "remote") == 1);
-        playerState.waitingToPlay = Util.getInt(tokenMap, "waitingToPlay") == 1;
-        playerState.rate = Util.getDouble(tokenMap, "rate");
-        boolean changedSongDuration = playerState.setCurrentSongDuration(Util.getInt(tokenMap, "duration"));
-        boolean changedSongTime = playerState.setCurrentTimeSecond(Util.getDouble(tokenMap, "time"));
-        boolean changedVolume = playerState.setCurrentVolume(Util.getInt(tokenMap, "mixer volume"));
-        boolean changedSyncMaster = playerState.setSyncMaster(Util.getString(tokenMap, "sync_master"));
-        boolean changedSyncSlaves = playerState.setSyncSlaves(Splitter.on(",").omitEmptyStrings().splitToList(Util.getStringOrEmpty(tokenMap, "sync_slaves")));
-
-        player.setPlayerState(playerState);
-
-        // Kept as its own method because other methods call it, unlike the explicit
-        // calls to the callbacks below.
-        updatePlayStatus(player, Util.getString(tokenMap, "mode"));
+
+        // Change a copy of the state and publish it when it is complete, so readers on other
+        // threads never see a partly updated state
+        PlayerState playerState;
+        int oldTracksNum;
+        int oldIndex;
+        boolean changedPower;
+        boolean changedShuffleStatus;
+        boolean changedRepeatStatus;
+        boolean changedPlaylist;
+        boolean changedSleep;
+        boolean changedSleepDuration;
+        boolean changedSong;
+        boolean changedSongDuration;
+        boolean changedSongTime;
+        boolean changedVolume;
+        boolean changedSyncMaster;
+        boolean changedSyncSlaves;
+        boolean changedPlayStatus;
+        synchronized (player) {
+            playerState = player.getPlayerState().copy();
+            playerState.statusSeen = SystemClock.elapsedRealtime() / 1000.0;
+
+            changedPower = playerState.setPoweredOn(Util.getInt(tokenMap, "power") == 1);
+            changedShuffleStatus = playerState.setShuffleStatus(Util.getString(tokenMap, "playlist shuffle"));
+            changedRepeatStatus = playerState.setRepeatStatus(Util.getString(tokenMap, "playlist repeat"));
+            oldTracksNum = playerState.getCurrentPlaylistTracksNum();
+            oldIndex = playerState.getCurrentPlaylistIndex();
+            changedPlaylist = playerState.setCurrentPlaylistTimestamp(Util.getLong(tokenMap, "playlist_timestamp"));
+            playerState.setCurrentPlaylistTracksNum(Util.getInt(tokenMap, "playlist_tracks"));
+            playerState.setCurrentPlaylistIndex(Util.getInt(tokenMap, "playlist_cur_index"));
+            playerState.setCurrentPlaylist(Util.getString(tokenMap, "playlist_name"));
+            changedSleep = playerState.setSleep(Util.getInt(tokenMap, "will_sleep_in"));
+            changedSleepDuration = playerState.setSleepDuration(Util.getInt(tokenMap, "sleep"));
+            changedSong = playerState.setCurrentSong(currentSong);
+            playerState.setRemote(Util.getInt(tokenMap, "remote") == 1);
+            playerState.waitingToPlay = Util.getInt(tokenMap, "waitingToPlay") == 1;
+            playerState.rate = Util.getDouble(tokenMap, "rate");
+            changedSongDuration = playerState.setCurrentSongDuration(Util.getInt(tokenMap, "duration"));
+            changedSongTime = playerState.setCurrentTimeSecond(Util.getDouble(tokenMap, "time"));
+            changedVolume = !isVolumeChangePending(player)
+                    && playerState.setCurrentVolume(Util.getInt(tokenMap, "mixer volume"));
+            changedSyncMaster = playerState.setSyncMaster(Util.getString(tokenMap, "sync_master"));
+            changedSyncSlaves = playerState.setSyncSlaves(Util.getStringOrEmpty(tokenMap, "sync_slaves"));
+            changedPlayStatus = updatePlayStatus(playerState, Util.getString(tokenMap, "mode"));
+
+            player.setPlayerState(playerState);
+        }
+
+        if (changedPlayStatus) {
+            mEventBus.post(new PlayStatusChanged(playerState.getPlayStatus(), player));
+        }
 
         // Current playlist
         if (changedPlaylist) {
-            mEventBus.post(new PlaylistChanged(player));
+            mEventBus.post(new PlaylistChanged(player, mPlaylistEditTracker.onPlaylistChanged(player,
+                    oldTracksNum, oldIndex, playerState.getCurrentPlaylistTracksNum(),
+                    playerState.getCurrentPlaylistIndex())));
         }
 
+        // Progress in the current song is reported by postSongTimeChanged below
         if (changedPower || changedSleep || changedSleepDuration || changedVolume
-                || changedSong || changedSongDuration || changedSongTime
+                || changedSong || changedSongDuration
                 || changedSyncMaster || changedSyncSlaves) {
             postPlayerStateChanged(player);
         }
@@ -170,19 +206,16 @@ abstract class BaseClient implements SlimClient {
         mEventBus.post(new PlayerStateChanged(player));
     }
 
-    private void updatePlayStatus(Player player, String playStatus) {
+    /** @return True if the play status changed. */
+    private static boolean updatePlayStatus(PlayerState playerState, String playStatus) {
         // Handle unknown states.
-        if (!playStatus.equals(PlayerState.PLAY_STATE_PLAY) &&
-                !playStatus.equals(PlayerState.PLAY_STATE_PAUSE) &&
-                !playStatus.equals(PlayerState.PLAY_STATE_STOP)) {
-            return;
+        if (!PlayerState.PLAY_STATE_PLAY.equals(playStatus) &&
+                !PlayerState.PLAY_STATE_PAUSE.equals(playStatus) &&
+                !PlayerState.PLAY_STATE_STOP.equals(playStatus)) {
+            return false;
         }
 
-        PlayerState playerState = player.getPlayerState();
-
-        if (playerState.setPlayStatus(playStatus)) {
-            mEventBus.post(new PlayStatusChanged(playStatus, player));
-        }
+        return playerState.setPlayStatus(playStatus);
     }
 
     protected static class BrowseRequest<T extends Item> {
@@ -193,6 +226,7 @@ abstract class BaseClient implements SlimClient {
         private int itemsPerResponse;
         private final Map<String, Object> params;
         private final IServiceItemListCallback<T> callback;
+        private byte[] cachedPage;
 
         BrowseRequest(Player player, String[] cmd, Map<String, Object> params, int start, int itemsPerResponse, IServiceItemListCallback<T> callback) {
             this.player = player;
@@ -237,5 +271,14 @@ abstract class BaseClient implements SlimClient {
         public IServiceItemListCallback<T> getCallback() {
             return callback;
         }
+
+        /** @return The JSON of the cached page delivered for the current request, if any. */
+        byte[] getCachedPage() {
+            return cachedPage;
+        }
+
+        void setCachedPage(byte[] cachedPage) {
+            this.cachedPage = cachedPage;
+        }
     }
 }
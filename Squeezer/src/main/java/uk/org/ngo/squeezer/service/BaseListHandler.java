@@ -9,6 +9,7 @@ import java.util.Map;
 
 import uk.org.ngo.squeezer.util.Reflection;
 import uk.org.ngo.squeezer.framework.Item;
+import uk.org.ngo.squeezer.framework.ItemTemplate;
 
 /**
  * Base class that constructs a list of model objects based on CLI results from
@@ -27,6 +28,9 @@ abstract class BaseListHandler<T extends Item> implements ListHandler<T> {
 
     private Constructor<T> constructor;
 
+    /** True if {@link #constructor} takes an {@link ItemTemplate} in addition to the record. */
+    private boolean templateConstructor;
+
     @Override
     public Class<T> getDataType() {
         return dataType;
@@ -45,17 +49,22 @@ abstract class BaseListHandler<T extends Item> implements ListHandler<T> {
     }
 
     @Override
-    public void add(Map<String, Object> record) {
+    public void add(Map<String, Object> record, ItemTemplate base) {
         if (constructor == null) {
             try {
-                constructor = dataType.getDeclaredConstructor(Map.class);
-            } catch (Exception e) {
-                throw new InstantiationException(
-                        "Unable to create constructor for " + dataType.getName(), e);
+                constructor = dataType.getDeclaredConstructor(Map.class, ItemTemplate.class);
+                templateConstructor = true;
+            } catch (NoSuchMethodException e) {
+                try {
+                    constructor = dataType.getDeclaredConstructor(Map.class);
+                } catch (Exception e1) {
+                    throw new InstantiationException(
+                            "Unable to create constructor for " + dataType.getName(), e1);
+                }
             }
         }
         try {
-            items.add(constructor.newInstance(record));
+            items.add(templateConstructor ? constructor.newInstance(record, base) : constructor.newInstance(record));
         } catch (Exception e) {
             throw new InstantiationException("Unable to create new " + dataType.getName(), e);
         }
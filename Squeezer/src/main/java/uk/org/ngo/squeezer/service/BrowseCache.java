@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import uk.org.ngo.squeezer.util.DiskLruCache;
+import uk.org.ngo.squeezer.util.ImageCache;
+
+/**
+ * On disk cache of browse replies, so pages can be shown before the server has answered, and
+ * when the server is not reachable.
+ * <p>
+ * Pages are keyed by player, command, parameters, start and page size, and stored as the JSON of
+ * the reply data, as it was received. Pages are stamped when they are stored, and only served
+ * while the stamp is unchanged: pages of the current playlist with the playlist timestamp, and
+ * other pages of a player with the time the server last changed the menus of the player.
+ * <p>
+ * Pages and menu changes are written in the background. Reading does disk access, so
+ * {@link #get(BaseClient.BrowseRequest)} and {@link #put(BaseClient.BrowseRequest, byte[])}, which
+ * reads the stamp, must not be called on the main thread.
+ */
+class BrowseCache {
+    private static final String TAG = BrowseCache.class.getSimpleName();
+
+    private static final int MAX_DISK_CACHE_SIZE = 1024 * 1024 * 10; // 10MB
+
+    /** Increment to discard pages stored by a previous version. */
+    private static final int CACHE_VERSION = 2;
+
+    private static final int STAMP_INDEX = 0;
+    private static final int DATA_INDEX = 1;
+
+    private final File mDirectory;
+
+    private DiskLruCache mDiskLruCache;
+
+    /** Pages and menu changes are written one at a time, in the order they were received. */
+    private final Executor mWriteExecutor = Executors.newSingleThreadExecutor();
+
+    /** The time the menus of a player last changed, by player id, as read from the cache. */
+    private final Map<String, String> mMenuStamps = new HashMap<>();
+
+    BrowseCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * @return The reply data for the requested page as JSON, or null if it is not in the cache,
+     *     or it is stale.
+     */
+    @Nullable
+    synchronized byte[] get(BaseClient.BrowseRequest<?> browseRequest) {
+        DiskLruCache diskLruCache = getDiskLruCache();
+        if (diskLruCache == null) {
+            return null;
+        }
+
+        String key = key(browseRequest);
+        try {
+            String stamp = stamp(browseRequest, playlistStamp(browseRequest));
+            DiskLruCache.Snapshot snapshot = diskLruCache.get(key);
+            if (snapshot == null) {
+                return null;
+            }
+            try {
+                if (!stamp.equals(snapshot.getString(STAMP_INDEX))) {
+                    return null;
+                }
+                return snapshot.getBytes(DATA_INDEX);
+            } finally {
+                snapshot.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "get(" + key + "): " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Parse reply data returned by {@link #get(BaseClient.BrowseRequest)}.
+     *
+     * @return The reply data, or null if it can't be parsed.
+     */
+    @Nullable
+    static Map<String, Object> parse(byte[] json) {
+        try {
+            return StreamingJsonParser.parseMessages(json).get(0);
+        } catch (ParseException | RuntimeException e) {
+            Log.w(TAG, "Invalid cached page: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the reply data for the requested page. The page is written in the background.
+     *
+     * @param json The reply data as JSON
+     */
+    void put(BaseClient.BrowseRequest<?> browseRequest, final byte[] json) {
+        // The request is updated for the next page, and the playlist may change, before the page
+        // is written, so take the key and the stamp now
+        final String key = key(browseRequest);
+        final String stamp = currentStamp(browseRequest);
+        if (stamp == null) {
+            return;
+        }
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(key, stamp, json);
+            }
+        });
+    }
+
+    /**
+     * @return The validation stamp to store the requested page with, or null if the cache can't
+     *     be read.
+     */
+    @Nullable
+    private synchronized String currentStamp(BaseClient.BrowseRequest<?> browseRequest) {
+        if (getDiskLruCache() == null) {
+            return null;
+        }
+        try {
+            return stamp(browseRequest, playlistStamp(browseRequest));
+        } catch (IOException e) {
+            Log.w(TAG, "put: " + e);
+            return null;
+        }
+    }
+
+    private synchronized void write(String key, String stamp, byte[] json) {
+        DiskLruCache diskLruCache = getDiskLruCache();
+        if (diskLruCache == null) {
+            return;
+        }
+
+        try {
+            DiskLruCache.Editor editor = diskLruCache.edit(key);
+            if (editor != null) {
+                editor.set(STAMP_INDEX, stamp);
+                OutputStream outputStream = editor.newOutputStream(DATA_INDEX);
+                try {
+                    outputStream.write(json);
+                } finally {
+                    outputStream.close();
+                }
+                editor.commit();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "put(" + key + "): " + e);
+        }
+    }
+
+    /**
+     * Mark the cached pages of a player as stale, because the server has changed its menus.
+     * Pages of other players, and pages which were stored after this call, are still served.
+     */
+    void invalidateMenus(final String playerId) {
+        final String menuStamp = String.valueOf(System.currentTimeMillis());
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeMenuStamp(playerId, menuStamp);
+            }
+        });
+    }
+
+    private synchronized void writeMenuStamp(String playerId, String menuStamp) {
+        mMenuStamps.put(playerId, menuStamp);
+
+        DiskLruCache diskLruCache = getDiskLruCache();
+        if (diskLruCache == null) {
+            return;
+        }
+        String key = menuStampKey(playerId);
+        try {
+            DiskLruCache.Editor editor = diskLruCache.edit(key);
+            if (editor != null) {
+                editor.set(STAMP_INDEX, "");
+                editor.set(DATA_INDEX, menuStamp);
+                editor.commit();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "invalidateMenus(" + playerId + "): " + e);
+        }
+    }
+
+    @Nullable
+    private DiskLruCache getDiskLruCache() {
+        if (mDiskLruCache == null || mDiskLruCache.isClosed()) {
+            if (!mDirectory.exists()) {
+                mDirectory.mkdirs();
+            }
+            long diskCacheSize = Math.min(ImageCache.getUsableSpace(mDirectory) / 10, MAX_DISK_CACHE_SIZE);
+            try {
+                mDiskLruCache = DiskLruCache.open(mDirectory, CACHE_VERSION, 2, diskCacheSize);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't open browse cache in " + mDirectory + ": " + e);
+                mDiskLruCache = null;
+            }
+        }
+        return mDiskLruCache;
+    }
+
+    /**
+     * @return The playlist timestamp, if the requested page is a page of the current playlist,
+     *     otherwise null.
+     */
+    @Nullable
+    private static String playlistStamp(BaseClient.BrowseRequest<?> browseRequest) {
+        if (browseRequest.getPlayer() != null && "status".equals(browseRequest.getCmd()[0])) {
+            return String.valueOf(browseRequest.getPlayer().getPlayerState().getCurrentPlaylistTimestamp());
+        }
+        return null;
+    }
+
+    /**
+     * @return The validation stamp for the requested page: the playlist timestamp for pages of
+     *     the current playlist, otherwise the time the menus of the player last changed.
+     */
+    private String stamp(BaseClient.BrowseRequest<?> browseRequest, @Nullable String playlistStamp) throws IOException {
+        if (playlistStamp != null) {
+            return playlistStamp;
+        }
+        if (browseRequest.getPlayer() != null) {
+            return menuStamp(browseRequest.getPlayer().getId());
+        }
+        return "";
+    }
+
+    private String menuStamp(String playerId) throws IOException {
+        String menuStamp = mMenuStamps.get(playerId);
+        if (menuStamp == null) {
+            menuStamp = "";
+            DiskLruCache.Snapshot snapshot = mDiskLruCache.get(menuStampKey(playerId));
+            if (snapshot != null) {
+                try {
+                    menuStamp = snapshot.getString(DATA_INDEX);
+                } finally {
+                    snapshot.close();
+                }
+            }
+            mMenuStamps.put(playerId, menuStamp);
+        }
+        return menuStamp;
+    }
+
+    private static String menuStampKey(String playerId) {
+        return ImageCache.hashKeyForDisk("menus " + playerId);
+    }
+
+    private static String key(BaseClient.BrowseRequest<?> browseRequest) {
+        StringBuilder sb = new StringBuilder();
+        if (browseRequest.getPlayer() != null) {
+            sb.append(browseRequest.getPlayer().getId());
+        }
+        sb.append(' ').append(Arrays.toString(browseRequest.getCmd()));
+        // Sort the parameters so the key doesn't depend on the iteration order of the map
+        sb.append(' ').append(new TreeMap<>(browseRequest.getParams()));
+        sb.append(' ').append(browseRequest.getStart());
+        sb.append(' ').append(browseRequest.getItemsPerResponse());
+        return ImageCache.hashKeyForDisk(sb.toString());
+    }
+}
@@ -19,12 +19,14 @@ package uk.org.ngo.squeezer.service;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 
@@ -48,18 +50,26 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import de.greenrobot.event.EventBus;
 import uk.org.ngo.squeezer.Preferences;
+import uk.org.ngo.squeezer.R;
+import uk.org.ngo.squeezer.Squeezer;
 import uk.org.ngo.squeezer.Util;
 import uk.org.ngo.squeezer.framework.AlertWindow;
 import uk.org.ngo.squeezer.framework.Item;
+import uk.org.ngo.squeezer.framework.ItemTemplate;
 import uk.org.ngo.squeezer.framework.DisplayMessage;
 import uk.org.ngo.squeezer.itemlist.IServiceItemListCallback;
 import uk.org.ngo.squeezer.model.Alarm;
@@ -75,6 +85,7 @@ import uk.org.ngo.squeezer.framework.MenuStatusMessage;
 import uk.org.ngo.squeezer.service.event.PlayerPrefReceived;
 import uk.org.ngo.squeezer.service.event.PlayerVolume;
 import uk.org.ngo.squeezer.service.event.RegisterSqueezeNetwork;
+import uk.org.ngo.squeezer.util.ImageCache;
 import uk.org.ngo.squeezer.util.Reflection;
 
 class CometClient extends BaseClient {
@@ -113,6 +124,24 @@ class CometClient extends BaseClient {
     // Maximum time for wait replies for server capabilities
     private static final long HANDSHAKE_TIMEOUT = 4000;
 
+    /** The maximum number of publishes we send to the server before waiting for a response. */
+    private static final int PUBLISH_WINDOW = Squeezer.getContext().getResources().getInteger(R.integer.PublishWindow);
+
+    /**
+     * Publishes issued within this many milliseconds of each other are sent to the server
+     * together, in a single HTTP request.
+     */
+    private static final long PUBLISH_BATCH_DELAY = 20;
+
+    /** Log a warning when the number of queued publishes goes above this. */
+    private static final int PUBLISH_QUEUE_HIGH_WATER_MARK = 50;
+
+    /**
+     * Stop waiting for the reply to a coalesced request after this many milliseconds, so a lost
+     * reply doesn't hide changes reported by the server.
+     */
+    private static final long COALESCED_REPLY_TIMEOUT = 5000;
+
 
     /** Handler for off-main-thread work. */
     @NonNull
@@ -134,8 +163,33 @@ class CometClient extends BaseClient {
     private final Map<String, BrowseRequest<? extends Item>> mPendingBrowseRequests
             = new ConcurrentHashMap<>();
 
+    /** Browse requests made before the handshake, which are sent when it completes. */
+    private final Queue<BrowseRequest<? extends Item>> mDeferredBrowseRequests
+            = new ConcurrentLinkedQueue<>();
+
+    /** Pages received for browse requests, so they can be shown before the server answers. */
+    private final BrowseCache mBrowseCache = new BrowseCache(ImageCache.getDiskCacheDir(Squeezer.getContext(), "browse"));
+
+    /** Publishes waiting for room in the publish window, in the order they were issued. */
     private final Queue<PublishMessage> mCommandQueue = new LinkedList<>();
-    private boolean mCurrentCommand;
+
+    /** Publishes sent to the server, for which we have not yet received a response. */
+    private final Set<PublishMessage> mInFlight = new HashSet<>();
+
+    /** Ordering lanes (see {@link PublishMessage#lane}) with a publish in flight. */
+    private final Set<String> mBusyLanes = new HashSet<>();
+
+    /**
+     * The latest request of each command which sets an absolute value and has a reply handler,
+     * by {@link Request#coalesceKey}, so replies to requests it superseded can be ignored. It is
+     * removed when its reply is received, when its publish fails, or when the reply is overdue.
+     */
+    private final ConcurrentMap<String, Request> mLatestCoalescedRequests = new ConcurrentHashMap<>();
+
+    /** Number of publish responses received, and their total and maximum round trip in ms. */
+    private int mPublishCount;
+    private long mPublishTotalLatency;
+    private long mPublishMaxLatency;
 
     private final PublishListener mPublishListener = new PublishListener();
 
@@ -174,10 +228,18 @@ class CometClient extends BaseClient {
                     @Override
                     public void onResponse(Player player, Request request, Message message) {
                         if (request.cmd[1].equals("volume")) {
+                            if (isSuperseded(request)) {
+                                // Don't move the volume back while the user is changing it
+                                return;
+                            }
                             String volume = (String) message.getDataAsMap().get("_volume");
                             if (volume != null) {
                                 int newVolume = Integer.valueOf(volume);
-                                player.getPlayerState().setCurrentVolume(newVolume);
+                                synchronized (player) {
+                                    PlayerState playerState = player.getPlayerState().copy();
+                                    playerState.setCurrentVolume(newVolume);
+                                    player.setPlayerState(playerState);
+                                }
                                 mEventBus.post(new PlayerVolume(newVolume, player));
                             } else {
                                 command(player, new String[]{"mixer", "volume", "?"}, Collections.<String, Object>emptyMap());
@@ -318,7 +380,19 @@ class CometClient extends BaseClient {
 
             private void onConnected(boolean isSqueezeNetwork) {
                 Log.i(TAG, "Connected, start learning server capabilities");
-                mCurrentCommand = false;
+                // The publish window is only accessed from the handler thread
+                mBackgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mInFlight.clear();
+                        mBusyLanes.clear();
+                        sendDeferredBrowseRequests();
+                        // Publishes held back by the old window are not scheduled by anything else
+                        if (!mCommandQueue.isEmpty() && !mBackgroundHandler.hasMessages(MSG_PUBLISH_BATCH)) {
+                            mBackgroundHandler.sendEmptyMessageDelayed(MSG_PUBLISH_BATCH, PUBLISH_BATCH_DELAY);
+                        }
+                    }
+                });
                 mConnectionState.setConnectionState(ConnectionState.CONNECTION_COMPLETED);
 
                 String clientId = mBayeuxClient.getId();
@@ -416,9 +490,14 @@ class CometClient extends BaseClient {
             mConnectionState.setPlayers(players);
         } else {
             for (Player player : players.values()) {
-                PlayerState currentPlayerState = currentPlayers.get(player.getId()).getPlayerState();
-                if (!player.getPlayerState().prefs.equals(currentPlayerState.prefs)) {
-                    currentPlayerState.prefs = player.getPlayerState().prefs;
+                Player currentPlayer = currentPlayers.get(player.getId());
+                Map<String, String> prefs = player.getPlayerState().getPrefs();
+                if (!prefs.equals(currentPlayer.getPlayerState().getPrefs())) {
+                    synchronized (currentPlayer) {
+                        PlayerState playerState = currentPlayer.getPlayerState().copy();
+                        playerState.setPrefs(prefs);
+                        currentPlayer.setPlayerState(playerState);
+                    }
                     postPlayerStateChanged(player);
                 }
             }
@@ -441,24 +520,18 @@ class CometClient extends BaseClient {
         Object[] item_data = (Object[]) messageData.get("item_loop");
         if (item_data != null && item_data.length > 0) {
             Map<String, Object> record = (Map<String, Object>) item_data[0];
-
-            patchUrlPrefix(record);
-            record.put("base", messageData.get("base"));
-            currentSong = new CurrentPlaylistItem(record);
-            record.remove("base");
+            // Most status messages only report progress, so don't make the song again if the
+            // server sends the same record.
+            if (player.getPlayerState().isCurrentSong(record)) {
+                currentSong = player.getPlayerState().getCurrentSong();
+            } else {
+                ItemTemplate base = new ItemTemplate(Util.getRecord(messageData, "base"), mUrlPrefix);
+                currentSong = new CurrentPlaylistItem(record, base);
+            }
         }
         parseStatus(player, currentSong, messageData);
     }
 
-    @Override
-    protected void postSongTimeChanged(Player player) {
-        super.postSongTimeChanged(player);
-        if (player.getPlayerState().isPlaying()) {
-            mBackgroundHandler.removeMessages(MSG_TIME_UPDATE);
-            mBackgroundHandler.sendEmptyMessageDelayed(MSG_TIME_UPDATE, 1000);
-        }
-    }
-
     @Override
     protected void postPlayerStateChanged(Player player) {
         super.postPlayerStateChanged(player);
@@ -489,11 +562,12 @@ class CometClient extends BaseClient {
 
         // each chunk.data[2] contains a table that needs insertion into the menu
         Object[] item_data = (Object[]) data[1];
+
         Plugin[] menuItems = new Plugin[item_data.length];
+        ItemTemplate base = new ItemTemplate(null, mUrlPrefix);
         for (int i = 0; i < item_data.length; i++) {
             Map<String, Object> record = (Map<String, Object>) item_data[i];
-            patchUrlPrefix(record);
-            menuItems[i] = new Plugin(record);
+            menuItems[i] = new Plugin(record, base);
         }
 
         // directive for these items is in chunk.data[3]
@@ -502,15 +576,20 @@ class CometClient extends BaseClient {
         // the player ID this notification is for is in chunk.data[4]
         String playerId = (String) data[3];
 
+        // The menus of the player have changed, so its cached pages may hold stale menu items
+        mBrowseCache.invalidateMenus(playerId);
+
         mConnectionState.menuStatusEvent(new MenuStatusMessage(playerId, menuDirective, menuItems));
     }
 
     /**
-     * Add endpoint to fetch further info from a slimserver item
+     * Add endpoint to fetch further info from a slimserver reply
      */
-    private void patchUrlPrefix(Map<String, Object> record) {
-        record.put("urlPrefix", mUrlPrefix);
-        Map<String, Object> window = (Map<String, Object>) record.get("window");
+    private void patchUrlPrefix(Map<String, Object> data) {
+        data.put("urlPrefix", mUrlPrefix);
+        // The window of the reply is read by Item.extractWindow(Map, Map), which takes the
+        // prefix from the window record
+        Map<String, Object> window = Util.getRecord(data, "window");
         if (window != null) {
             window.put("urlPrefix", mUrlPrefix);
         }
@@ -527,12 +606,18 @@ class CometClient extends BaseClient {
                 // TODO remote logging and possible other handling
                 Log.e(TAG, channel + ": " + message.getJSON());
             }
-            mBackgroundHandler.sendEmptyMessage(MSG_PUBLISH_RESPONSE_RECIEVED);
         }
     }
 
     private abstract class ItemListener<T extends Item> extends BaseListHandler<T> implements ResponseHandler {
-        void parseMessage(String countName, String itemLoopName, Message message) {
+        private final String itemLoopName;
+
+        ItemListener(String itemLoopName) {
+            this.itemLoopName = itemLoopName;
+        }
+
+        @Override
+        public void onResponse(Player player, Request request, Message message) {
             @SuppressWarnings("unchecked")
             BrowseRequest<T> browseRequest = (BrowseRequest<T>) mPendingBrowseRequests.get(message.getChannel());
             if (browseRequest == null) {
@@ -540,66 +625,78 @@ class CometClient extends BaseClient {
             }
 
             mPendingBrowseRequests.remove(message.getChannel());
-            clear();
             Map<String, Object> data = message.getDataAsMap();
-            int count = Util.getInt(data.get(countName));
-            Map<String, Object> baseRecord = (Map<String, Object>) data.get("base");
-            if (baseRecord != null) {
-                patchUrlPrefix(baseRecord);
-            }
-            Object[] item_data = (Object[]) data.get(itemLoopName);
-            if (item_data != null) {
-                for (Object item_d : item_data) {
-                    Map<String, Object> record = (Map<String, Object>) item_d;
-                    patchUrlPrefix(record);
-                    if (baseRecord != null) record.put("base", baseRecord);
-                    add(record);
-                    record.remove("base");
-                }
-            }
-
-            // Process the lists for all the registered handlers
-            final boolean fullList = browseRequest.isFullList();
-            final int start = browseRequest.getStart();
-            final int end = start + getItems().size();
-            int max = 0;
             patchUrlPrefix(data);
-            browseRequest.getCallback().onItemsReceived(count, start, data, getItems(), getDataType());
-            if (count > max) {
-                max = count;
+
+            // Skip the page if it is unchanged from the cached page we already delivered
+            byte[] json = StreamingJsonParser.getRawData(message);
+            int count;
+            if (json != null && Arrays.equals(json, browseRequest.getCachedPage())) {
+                count = Util.getInt(data.get("count"));
+            } else {
+                if (json != null) {
+                    mBrowseCache.put(browseRequest, json);
+                }
+                count = parsePage(browseRequest, data);
             }
 
             // Check if we need to order more items
-            if ((fullList || end % mPageSize != 0) && end < max) {
-                int itemsPerResponse = (end + mPageSize > max ? max - end : fullList ? mPageSize : mPageSize - browseRequest.getItemsPerResponse());
+            final boolean fullList = browseRequest.isFullList();
+            Object[] item_data = (Object[]) data.get(itemLoopName);
+            final int end = browseRequest.getStart() + (item_data != null ? item_data.length : 0);
+            if ((fullList || end % mPageSize != 0) && end < count) {
+                int itemsPerResponse = (end + mPageSize > count ? count - end : fullList ? mPageSize : mPageSize - browseRequest.getItemsPerResponse());
                 //XXX support prefix
                 internalRequestItems(browseRequest.update(end, itemsPerResponse));
             }
         }
 
-        void parseMessage(String itemLoopName, Message message) {
-            parseMessage("count", itemLoopName, message);
+        /** Deliver a page from the browse cache. */
+        void onCachedPage(BrowseRequest<T> browseRequest, Map<String, Object> data) {
+            parsePage(browseRequest, data);
+        }
+
+        /**
+         * Parse the items of a page and deliver them to the callback of the browse request.
+         * <p>
+         * Pages from the server and from the cache are parsed on different threads, and the
+         * items are collected in this handler, hence the synchronization.
+         *
+         * @return The total number of items
+         */
+        private synchronized int parsePage(BrowseRequest<T> browseRequest, Map<String, Object> data) {
+            clear();
+            int count = Util.getInt(data.get("count"));
+            // The base record is shared by all items, so decode it once for the page
+            ItemTemplate base = new ItemTemplate(Util.getRecord(data, "base"), Util.getString(data, "urlPrefix"));
+            Object[] item_data = (Object[]) data.get(itemLoopName);
+            if (item_data != null) {
+                for (Object item_d : item_data) {
+                    Map<String, Object> record = (Map<String, Object>) item_d;
+                    add(record, base);
+                }
+            }
+
+            browseRequest.getCallback().onItemsReceived(count, browseRequest.getStart(), data, getItems(), getDataType());
+            return count;
         }
     }
 
     private class AlarmsListener extends ItemListener<Alarm> {
-        @Override
-        public void onResponse(Player player, Request request, Message message) {
-            parseMessage("alarms_loop", message);
+        AlarmsListener() {
+            super("alarms_loop");
         }
     }
 
     private class AlarmPlaylistsListener extends ItemListener<AlarmPlaylist> {
-        @Override
-        public void onResponse(Player player, Request request, Message message) {
-            parseMessage("item_loop", message);
+        AlarmPlaylistsListener() {
+            super("item_loop");
         }
     }
 
     private class PluginListener extends ItemListener<Plugin> {
-        @Override
-        public void onResponse(Player player, Request request, Message message) {
-            parseMessage("item_loop", message);
+        PluginListener() {
+            super("item_loop");
         }
     }
 
@@ -614,21 +711,63 @@ class CometClient extends BaseClient {
 
     private void disconnect(@ConnectionState.ConnectionStates int connectionState) {
         if (mBayeuxClient != null) mBackgroundHandler.sendEmptyMessage(MSG_DISCONNECT);
+        mPlaylistEditTracker.clear();
+        mLatestCoalescedRequests.clear();
         mConnectionState.setConnectionState(connectionState);
     }
 
     private void disconnect(ConnectionError connectionError) {
         if (mBayeuxClient != null) mBackgroundHandler.sendEmptyMessage(MSG_DISCONNECT);
+        mPlaylistEditTracker.clear();
+        mLatestCoalescedRequests.clear();
         mConnectionState.setConnectionError(connectionError);
     }
 
     @Override
     public void cancelClientRequests(Object client) {
+        cancelClientRequests(client, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void cancelClientRequests(Object client, int start, int count) {
         for (Map.Entry<String, BrowseRequest<? extends Item>> entry : mPendingBrowseRequests.entrySet()) {
-            if (entry.getValue().getCallback().getClient() == client) {
-                mPendingBrowseRequests.remove(entry.getKey());
+            if (isRequestFor(entry.getValue(), client, start, count)) {
+                cancelRequest(entry.getKey());
             }
         }
+        Iterator<BrowseRequest<? extends Item>> iterator = mDeferredBrowseRequests.iterator();
+        while (iterator.hasNext()) {
+            if (isRequestFor(iterator.next(), client, start, count)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static boolean isRequestFor(BrowseRequest<? extends Item> browseRequest, Object client, int start, int count) {
+        return browseRequest.getCallback().getClient() == client
+                && browseRequest.getStart() >= start && browseRequest.getStart() - start < count;
+    }
+
+    /**
+     * Forget the request with the given response channel, so its reply is ignored, and don't
+     * send it if it is still queued.
+     */
+    private void cancelRequest(final String responseChannel) {
+        mPendingBrowseRequests.remove(responseChannel);
+        mPendingRequests.remove(responseChannel);
+        // The publish is queued on the handler thread, after any message which is still pending
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Iterator<PublishMessage> iterator = mCommandQueue.iterator();
+                while (iterator.hasNext()) {
+                    if (responseChannel.equals(iterator.next().responseChannel)) {
+                        iterator.remove();
+                        break;
+                    }
+                }
+            }
+        });
     }
 
     private void exec(ResponseHandler callback, String... cmd) {
@@ -642,54 +781,299 @@ class CometClient extends BaseClient {
         return responseChannel;
     }
 
-    /** If request is null, this is an unsubscribe to the suplied response channel */
     private void publishMessage(final Request request, final String channel, final String responseChannel, final PublishListener publishListener) {
+        publishMessage(new PublishMessage(request.player, request, channel, responseChannel, publishListener));
+    }
+
+    private void publishMessage(PublishMessage publishMessage) {
         // Make sure all requests are done in the handler thread
         if (mBackgroundHandler.getLooper() == Looper.myLooper()) {
-            _publishMessage(request, channel, responseChannel, publishListener);
+            _publishMessage(publishMessage);
         } else {
-            PublishMessage publishMessage = new PublishMessage(request, channel, responseChannel, publishListener);
             android.os.Message message = mBackgroundHandler.obtainMessage(MSG_PUBLISH, publishMessage);
             mBackgroundHandler.sendMessage(message);
         }
 
     }
 
-    /** This may only be called from the handler thread */
-    private void _publishMessage(Request request, String channel, String responseChannel, PublishListener publishListener) {
-        if (!mCurrentCommand) {
-            mCurrentCommand = true;
-            Map<String, Object> data = new HashMap<>();
-            if (request != null) {
-                data.put("request", request.slimRequest());
-                data.put("response", responseChannel);
-            } else {
-                data.put("unsubscribe", responseChannel);
+    /**
+     * Queue the publish, and schedule the queue to be sent after {@link #PUBLISH_BATCH_DELAY},
+     * so publishes issued in a burst (page prefetches, player preferences, volume queries) go
+     * to the server in one HTTP request.
+     * <p>
+     * This may only be called from the handler thread
+     */
+    private void _publishMessage(PublishMessage publishMessage) {
+        if (publishMessage.request != null && publishMessage.request.coalesceKey != null) {
+            dropSupersededPublish(publishMessage);
+        }
+        mCommandQueue.add(publishMessage);
+        if (mCommandQueue.size() > PUBLISH_QUEUE_HIGH_WATER_MARK) {
+            Log.w(TAG, "Publish queue is backed up: " + mCommandQueue.size() + " queued, " + mInFlight.size() + " in flight");
+        }
+        if (!mBackgroundHandler.hasMessages(MSG_PUBLISH_BATCH)) {
+            mBackgroundHandler.sendEmptyMessageDelayed(MSG_PUBLISH_BATCH, PUBLISH_BATCH_DELAY);
+        }
+    }
+
+    /**
+     * Remove the queued publish which the given publish supersedes, if any: the last queued
+     * publish in the same lane, if it sets the same value. E.g. while the volume is dragged only
+     * the latest volume waits to be sent, instead of every step.
+     * <p>
+     * Only the last publish in the lane is replaced, so the new value is still sent after any
+     * other command which was issued after the value it replaces.
+     * <p>
+     * This may only be called from the handler thread
+     */
+    private void dropSupersededPublish(PublishMessage publishMessage) {
+        PublishMessage lastInLane = null;
+        for (PublishMessage queued : mCommandQueue) {
+            if (publishMessage.lane != null && publishMessage.lane.equals(queued.lane)) {
+                lastInLane = queued;
+            }
+        }
+        if (lastInLane != null && lastInLane.request != null
+                && publishMessage.request.coalesceKey.equals(lastInLane.request.coalesceKey)) {
+            mCommandQueue.remove(lastInLane);
+            mPendingRequests.remove(lastInLane.responseChannel);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Dropped " + lastInLane + ", superseded by " + publishMessage);
             }
-            mBayeuxClient.getChannel(channel).publish(data, publishListener != null ? publishListener : this.mPublishListener);
-        } else
-            mCommandQueue.add(new PublishMessage(request, channel, responseChannel, publishListener));
+        }
+    }
+
+    /**
+     * Send queued publishes while there is room in the publish window. Publishes sent in one
+     * call are batched into a single Bayeux message list.
+     * <p>
+     * A publish is held back while an earlier publish in the same lane is in flight or still
+     * queued, so the server sees the commands for a player in the order they were issued.
+     * <p>
+     * This may only be called from the handler thread
+     */
+    private void publishQueuedMessages() {
+        if (mBayeuxClient == null) {
+            return;
+        }
+
+        Set<String> blockedLanes = null;
+        Iterator<PublishMessage> iterator = mCommandQueue.iterator();
+        mBayeuxClient.startBatch();
+        try {
+            while (mInFlight.size() < PUBLISH_WINDOW && iterator.hasNext()) {
+                PublishMessage publishMessage = iterator.next();
+                String lane = publishMessage.lane;
+                if (lane != null) {
+                    if (mBusyLanes.contains(lane) || (blockedLanes != null && blockedLanes.contains(lane))) {
+                        if (blockedLanes == null) blockedLanes = new HashSet<>();
+                        blockedLanes.add(lane);
+                        continue;
+                    }
+                    mBusyLanes.add(lane);
+                }
+                iterator.remove();
+                mInFlight.add(publishMessage);
+                publishMessage.send();
+            }
+        } finally {
+            mBayeuxClient.endBatch();
+        }
+    }
+
+    /** This may only be called from the handler thread */
+    private void onPublishResponse(PublishMessage publishMessage) {
+        if (!mInFlight.remove(publishMessage)) {
+            // Response to a publish from before a reconnect
+            return;
+        }
+        if (publishMessage.lane != null) {
+            mBusyLanes.remove(publishMessage.lane);
+        }
+
+        long latency = SystemClock.elapsedRealtime() - publishMessage.sentAt;
+        mPublishCount++;
+        mPublishTotalLatency += latency;
+        if (latency > mPublishMaxLatency) mPublishMaxLatency = latency;
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "Publish " + publishMessage + " took " + latency + " ms (average "
+                    + (mPublishTotalLatency / mPublishCount) + " ms, max " + mPublishMaxLatency
+                    + " ms, in flight " + mInFlight.size() + ", queued " + mCommandQueue.size() + ")");
+        }
+
+        publishQueuedMessages();
     }
 
     @Override
     protected  <T extends Item> void internalRequestItems(final BrowseRequest<T> browseRequest) {
+        final ItemListener<T> listener = itemListener(browseRequest);
+
+        // Reading the cache is disk access, and the cached page must be delivered before the
+        // reply from the server, so do both on the background thread.
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                byte[] cachedPage = mBrowseCache.get(browseRequest);
+                Map<String, Object> cachedData = (cachedPage != null ? BrowseCache.parse(cachedPage) : null);
+                browseRequest.setCachedPage(cachedData != null ? cachedPage : null);
+                if (cachedData != null) {
+                    patchUrlPrefix(cachedData);
+                    listener.onCachedPage(browseRequest, cachedData);
+                }
+
+                // Revalidate the page. Until we are connected, the cache is all we have, and the
+                // request is sent when the handshake completes.
+                if (mBayeuxClient == null || !mBayeuxClient.isHandshook()) {
+                    mDeferredBrowseRequests.add(browseRequest);
+                    return;
+                }
+                sendBrowseRequest(browseRequest, listener);
+            }
+        });
+    }
+
+    private <T extends Item> ItemListener<T> itemListener(BrowseRequest<T> browseRequest) {
         Class<?> callbackClass = Reflection.getGenericClass(browseRequest.getCallback().getClass(), IServiceItemListCallback.class, 0);
-        ItemListener listener = mItemRequestMap.get(callbackClass);
+        @SuppressWarnings("unchecked")
+        ItemListener<T> listener = (ItemListener<T>) mItemRequestMap.get(callbackClass);
         if (listener == null) {
             throw new RuntimeException("No handler defined for '" + browseRequest.getCallback().getClass() + "'");
         }
+        return listener;
+    }
 
-
+    private <T extends Item> void sendBrowseRequest(BrowseRequest<T> browseRequest, ItemListener<T> listener) {
         Request request = request(browseRequest.getPlayer(), listener, browseRequest.getCmd())
                 .page(browseRequest.getStart(), browseRequest.getItemsPerResponse())
-                .params(browseRequest.getParams());
+                .params(browseRequest.getParams())
+                .unordered();
         mPendingBrowseRequests.put(exec(request), browseRequest);
     }
 
+    /**
+     * Send the browse requests which were made before the handshake completed.
+     * <p>
+     * This may only be called from the handler thread
+     */
+    private void sendDeferredBrowseRequests() {
+        BrowseRequest<? extends Item> browseRequest;
+        while ((browseRequest = mDeferredBrowseRequests.poll()) != null) {
+            sendDeferredBrowseRequest(browseRequest);
+        }
+    }
+
+    private <T extends Item> void sendDeferredBrowseRequest(BrowseRequest<T> browseRequest) {
+        sendBrowseRequest(browseRequest, itemListener(browseRequest));
+    }
+
     @Override
     public void command(Player player, String[] cmd, Map<String, Object> params) {
+        mPlaylistEditTracker.onCommand(player, cmd, params);
         ResponseHandler callback = mRequestMap.get(cmd[0]);
-        exec(request(player, callback, cmd).params(params));
+        Request request = request(player, callback, cmd).params(params);
+
+        String coalesceKey = coalesceKey(player, cmd);
+        if (coalesceKey != null) {
+            request.coalesceKey = coalesceKey;
+            // Only replies are checked for being superseded
+            if (callback != null) {
+                request.issuedAt = SystemClock.elapsedRealtime();
+                mLatestCoalescedRequests.put(coalesceKey, request);
+            }
+            applyOptimistically(player, cmd);
+        }
+
+        exec(request);
+    }
+
+    /**
+     * @return The key of commands which set the given absolute value of the player, so only the
+     *     latest of them has to be sent (see {@link #dropSupersededPublish(PublishMessage)}), or
+     *     null if the command can't be coalesced.
+     */
+    private static String coalesceKey(Player player, String[] cmd) {
+        if (player == null) {
+            return null;
+        }
+        if (cmd.length == 3 && "mixer".equals(cmd[0]) && "volume".equals(cmd[1]) && isAbsoluteValue(cmd[2])) {
+            return volumeCoalesceKey(player);
+        }
+        if (cmd.length == 2 && ("time".equals(cmd[0]) || "sleep".equals(cmd[0])) && isAbsoluteValue(cmd[1])) {
+            return player.getId() + " " + cmd[0];
+        }
+        return null;
+    }
+
+    private static String volumeCoalesceKey(Player player) {
+        return player.getId() + " mixer volume";
+    }
+
+    /** @return True if the value is a number, not a change (e.g. "+5") or a query ("?"). */
+    private static boolean isAbsoluteValue(String value) {
+        return !value.isEmpty() && Character.isDigit(value.charAt(0));
+    }
+
+    @Override
+    protected boolean isVolumeChangePending(Player player) {
+        String coalesceKey = volumeCoalesceKey(player);
+        Request request = mLatestCoalescedRequests.get(coalesceKey);
+        if (request == null) {
+            return false;
+        }
+        if (SystemClock.elapsedRealtime() - request.issuedAt > COALESCED_REPLY_TIMEOUT) {
+            mLatestCoalescedRequests.remove(coalesceKey, request);
+            return false;
+        }
+        return true;
+    }
+
+    /** @return True if a later request sets the same value as the given request. */
+    private boolean isSuperseded(Request request) {
+        if (request.coalesceKey == null) {
+            return false;
+        }
+        if (mLatestCoalescedRequests.get(request.coalesceKey) != request) {
+            return true;
+        }
+        mLatestCoalescedRequests.remove(request.coalesceKey);
+        return false;
+    }
+
+    /**
+     * Show the value set by a coalesced command right away, instead of when the server reports
+     * it, so controls follow the user while the commands are sent.
+     */
+    private void applyOptimistically(Player player, String[] cmd) {
+        int value = Util.getInt(cmd[cmd.length - 1], 0);
+        synchronized (player) {
+            PlayerState playerState = player.getPlayerState().copy();
+            switch (cmd[0]) {
+                case "mixer":
+                    playerState.setCurrentVolume(value);
+                    break;
+                case "time":
+                    playerState.setCurrentTimeSecond(value);
+                    playerState.statusSeen = SystemClock.elapsedRealtime() / 1000.0;
+                    break;
+                case "sleep":
+                    playerState.setSleepDuration(value);
+                    playerState.setSleep(value);
+                    break;
+            }
+            player.setPlayerState(playerState);
+        }
+
+        switch (cmd[0]) {
+            case "mixer":
+                mEventBus.post(new PlayerVolume(value, player));
+                break;
+            case "time":
+                postSongTimeChanged(player);
+                break;
+            case "sleep":
+                postPlayerStateChanged(player);
+                break;
+        }
     }
 
     @Override
@@ -707,7 +1091,11 @@ class CometClient extends BaseClient {
             public void onMessage(ClientSessionChannel channel, Message message) {
                 super.onMessage(channel, message);
                 if (message.isSuccessful()) {
-                    player.getPlayerState().setSubscriptionType(subscriptionType);
+                    synchronized (player) {
+                        PlayerState playerState = player.getPlayerState().copy();
+                        playerState.setSubscriptionType(subscriptionType);
+                        player.setPlayerState(playerState);
+                    }
                 }
             }
         });
@@ -733,7 +1121,7 @@ class CometClient extends BaseClient {
     }
 
     private void unsubscribeMenuStatus(Player player) {
-        publishMessage(null, CHANNEL_SLIM_UNSUBSCRIBE, subscribeResponseChannel(player, CHANNEL_MENU_STATUS_FORMAT), null);
+        publishMessage(new PublishMessage(player, null, CHANNEL_SLIM_UNSUBSCRIBE, subscribeResponseChannel(player, CHANNEL_MENU_STATUS_FORMAT), null));
     }
 
     private String subscribeResponseChannel(Player player, String format) {
@@ -751,8 +1139,8 @@ class CometClient extends BaseClient {
     private static final int MSG_DISCONNECT = 2;
     private static final int MSG_HANDSHAKE_TIMEOUT = 3;
     private static final int MSG_PUBLISH_RESPONSE_RECIEVED = 4;
-    private static final int MSG_TIME_UPDATE = 5;
     private static final int MSG_STATE_UPDATE = 6;
+    private static final int MSG_PUBLISH_BATCH = 7;
     private class CliHandler extends Handler {
         CliHandler(Looper looper) {
             super(looper);
@@ -761,11 +1149,9 @@ class CometClient extends BaseClient {
         @Override
         public void handleMessage(android.os.Message msg) {
             switch (msg.what) {
-                case MSG_PUBLISH: {
-                    PublishMessage message = (PublishMessage) msg.obj;
-                    _publishMessage(message.request, message.channel, message.responseChannel, message.publishListener);
+                case MSG_PUBLISH:
+                    _publishMessage((PublishMessage) msg.obj);
                     break;
-                }
                 case MSG_DISCONNECT:
                     mBayeuxClient.disconnect();
                     break;
@@ -773,20 +1159,12 @@ class CometClient extends BaseClient {
                     Log.w(TAG, "LMS handshake timeout: " + mConnectionState);
                     disconnect();
                     break;
-                case MSG_PUBLISH_RESPONSE_RECIEVED: {
-                    mCurrentCommand = false;
-                    PublishMessage message = mCommandQueue.poll();
-                    if (message != null)
-                        _publishMessage(message.request, message.channel, message.responseChannel, message.publishListener);
+                case MSG_PUBLISH_RESPONSE_RECIEVED:
+                    onPublishResponse((PublishMessage) msg.obj);
                     break;
-                }
-                case MSG_TIME_UPDATE: {
-                    Player activePlayer = mConnectionState.getActivePlayer();
-                    if (activePlayer != null) {
-                        postSongTimeChanged(activePlayer);
-                    }
+                case MSG_PUBLISH_BATCH:
+                    publishQueuedMessages();
                     break;
-                }
                 case MSG_STATE_UPDATE: {
                     Player player = (Player) msg.obj;
                     postPlayerStateChanged(player);
@@ -828,7 +1206,8 @@ class CometClient extends BaseClient {
         return new Request(null, null, cmd);
     }
 
-    private static class Request {
+    @VisibleForTesting
+    static class Request {
         private static final Joiner joiner = Joiner.on(" ");
 
         private final ResponseHandler callback;
@@ -836,14 +1215,21 @@ class CometClient extends BaseClient {
         private final String[] cmd;
         private PagingParams page;
         private Map<String, Object> params = new HashMap<>();
+        private boolean unordered;
+
+        /** Requests with the same key set the same value, so only the latest must be sent. */
+        private String coalesceKey;
 
-        private Request(Player player, ResponseHandler callback, String... cmd) {
+        /** When a request with a coalesce key was issued, in milliseconds since boot. */
+        private long issuedAt;
+
+        Request(Player player, ResponseHandler callback, String... cmd) {
             this.player = player;
             this.callback = callback;
             this.cmd = cmd;
         }
 
-        private Request param(String param, Object value) {
+        Request param(String param, Object value) {
             params.put(param, value);
             return this;
         }
@@ -853,7 +1239,7 @@ class CometClient extends BaseClient {
             return this;
         }
 
-        private Request page(int start, int page) {
+        Request page(int start, int page) {
             this.page = new PagingParams(String.valueOf(start), String.valueOf(page));
             return this;
         }
@@ -863,11 +1249,20 @@ class CometClient extends BaseClient {
             return this;
         }
 
-        private Request currentSong() {
+        Request currentSong() {
             page = PagingParams.status;
             return this;
         }
 
+        /**
+         * Mark this request as a query which doesn't change state on the server, so it may be
+         * sent ahead of, or alongside, other requests for the same player.
+         */
+        private Request unordered() {
+            unordered = true;
+            return this;
+        }
+
         public String getRequest() {
             return joiner.join(cmd);
         }
@@ -907,17 +1302,56 @@ class CometClient extends BaseClient {
         }
     }
 
-    private static class PublishMessage {
+    /** If request is null, this is an unsubscribe to the suplied response channel */
+    private class PublishMessage implements ClientSessionChannel.MessageListener {
         final Request request;
         final String channel;
         final String responseChannel;
         final PublishListener publishListener;
 
-        private PublishMessage(Request request, String channel, String responseChannel, PublishListener publishListener) {
+        /**
+         * Publishes in the same lane are sent one at a time, in order. This is the player id,
+         * or the empty string for server requests. Null if the publish may be sent at any time.
+         */
+        final String lane;
+
+        /** When this was sent, in milliseconds since boot. */
+        long sentAt;
+
+        private PublishMessage(Player player, Request request, String channel, String responseChannel, PublishListener publishListener) {
             this.request = request;
             this.channel = channel;
             this.responseChannel = responseChannel;
             this.publishListener = publishListener;
+            this.lane = (request != null && request.unordered) ? null : (player != null ? player.getId() : "");
+        }
+
+        /** This may only be called from the handler thread */
+        private void send() {
+            Map<String, Object> data = new HashMap<>();
+            if (request != null) {
+                data.put("request", request.slimRequest());
+                data.put("response", responseChannel);
+            } else {
+                data.put("unsubscribe", responseChannel);
+            }
+            sentAt = SystemClock.elapsedRealtime();
+            mBayeuxClient.getChannel(channel).publish(data, this);
+        }
+
+        @Override
+        public void onMessage(ClientSessionChannel channel, Message message) {
+            (publishListener != null ? publishListener : mPublishListener).onMessage(channel, message);
+            if (!message.isSuccessful() && request != null && request.coalesceKey != null) {
+                // There will be no reply to wait for
+                mLatestCoalescedRequests.remove(request.coalesceKey, request);
+            }
+            mBackgroundHandler.sendMessage(mBackgroundHandler.obtainMessage(MSG_PUBLISH_RESPONSE_RECIEVED, this));
+        }
+
+        @Override
+        public String toString() {
+            return (request != null ? request.getRequest() : "unsubscribe " + responseChannel);
         }
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import android.os.BadParcelableException;
+import android.os.Parcel;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import uk.org.ngo.squeezer.BuildConfig;
+import uk.org.ngo.squeezer.model.Player;
+import uk.org.ngo.squeezer.model.PlayerState;
+import uk.org.ngo.squeezer.model.Plugin;
+
+/**
+ * The state of the connection to the server, as it was when we were last connected: the players,
+ * the state of the active player including its current song, and the home menu.
+ * <p>
+ * It is saved when the connection is closed, so it can be shown on the next start while we
+ * connect to the server.
+ * <p>
+ * It is stored as a {@link Parcel}, which is only valid for the version of the app which wrote
+ * it, so the version code is stored with it, and a snapshot from another version is ignored.
+ */
+class ConnectionSnapshot {
+    private static final String TAG = ConnectionSnapshot.class.getSimpleName();
+
+    /** Snapshots are written in the background, one at a time. */
+    private static final Executor sWriteExecutor = Executors.newSingleThreadExecutor();
+
+    @NonNull final List<Player> players;
+
+    @NonNull final Player activePlayer;
+
+    @NonNull final List<Plugin> homeMenu;
+
+    ConnectionSnapshot(@NonNull List<Player> players, @NonNull Player activePlayer, @NonNull List<Plugin> homeMenu) {
+        this.players = players;
+        this.activePlayer = activePlayer;
+        this.homeMenu = homeMenu;
+    }
+
+    /**
+     * Write the snapshot to the given file. The snapshot is taken right away, and written in the
+     * background.
+     */
+    void save(final File file) {
+        Parcel parcel = Parcel.obtain();
+        final byte[] data;
+        try {
+            parcel.writeInt(BuildConfig.VERSION_CODE);
+            parcel.writeTypedList(players);
+            parcel.writeString(activePlayer.getId());
+            parcel.writeParcelable(activePlayer.getPlayerState(), 0);
+            parcel.writeTypedList(homeMenu);
+            data = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Write to a new file and rename it, so a snapshot is never partially written
+                File tmpFile = new File(file.getPath() + ".tmp");
+                try {
+                    FileOutputStream output = new FileOutputStream(tmpFile);
+                    try {
+                        output.write(data);
+                    } finally {
+                        output.close();
+                    }
+                    if (!tmpFile.renameTo(file)) {
+                        throw new IOException("Can't rename " + tmpFile + " to " + file);
+                    }
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "Saved snapshot of " + data.length + " bytes to " + file);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Can't save snapshot: " + e);
+                    tmpFile.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Read a snapshot written by {@link #save(File)}. This does disk access, so it must not be
+     * called on the main thread.
+     *
+     * @return The snapshot, or null if there is none, or it can't be read.
+     */
+    @Nullable
+    static ConnectionSnapshot load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        byte[] data = new byte[(int) file.length()];
+        try {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                int length = 0;
+                while (length < data.length) {
+                    int read = input.read(data, length, data.length - length);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                    length += read;
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read snapshot: " + e);
+            return null;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != BuildConfig.VERSION_CODE) {
+                Log.i(TAG, "Ignoring snapshot from another version");
+                return null;
+            }
+
+            List<Player> players = parcel.createTypedArrayList(Player.CREATOR);
+            String activePlayerId = parcel.readString();
+            PlayerState activePlayerState = parcel.readParcelable(PlayerState.class.getClassLoader());
+            List<Plugin> homeMenu = parcel.createTypedArrayList(Plugin.CREATOR);
+
+            for (Player player : players) {
+                if (player.getId().equals(activePlayerId)) {
+                    player.setPlayerState(activePlayerState);
+                    return new ConnectionSnapshot(players, player, homeMenu);
+                }
+            }
+            return null;
+        } catch (BadParcelableException | IllegalArgumentException e) {
+            // The snapshot is corrupt, it's not worth more than a warning
+            Log.w(TAG, "Can't parse snapshot: " + e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
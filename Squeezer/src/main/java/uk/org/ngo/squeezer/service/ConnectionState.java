@@ -20,16 +20,20 @@ import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
+import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import de.greenrobot.event.EventBus;
 import uk.org.ngo.squeezer.Util;
+import uk.org.ngo.squeezer.model.HomeMenu;
 import uk.org.ngo.squeezer.model.Player;
 import uk.org.ngo.squeezer.model.Plugin;
 import uk.org.ngo.squeezer.service.event.ActivePlayerChanged;
@@ -37,18 +41,23 @@ import uk.org.ngo.squeezer.service.event.ConnectionChanged;
 import uk.org.ngo.squeezer.service.event.HandshakeComplete;
 import uk.org.ngo.squeezer.service.event.HomeMenuEvent;
 import uk.org.ngo.squeezer.framework.MenuStatusMessage;
+import uk.org.ngo.squeezer.service.event.MusicChanged;
 import uk.org.ngo.squeezer.service.event.PlayersChanged;
 
 public class ConnectionState {
 
     private static final String TAG = "ConnectionState";
 
-    ConnectionState(@NonNull EventBus eventBus) {
+    ConnectionState(@NonNull EventBus eventBus, @NonNull File snapshotFile) {
         mEventBus = eventBus;
+        mSnapshotFile = snapshotFile;
     }
 
     private final EventBus mEventBus;
 
+    /** Where to save the state when the connection is closed, see {@link ConnectionSnapshot}. */
+    private final File mSnapshotFile;
+
     // Connection state machine
     @IntDef({DISCONNECTED, CONNECTION_STARTED, CONNECTION_FAILED, CONNECTION_COMPLETED, RECONNECT})
     @Retention(RetentionPolicy.SOURCE)
@@ -74,7 +83,10 @@ public class ConnectionState {
     private final AtomicReference<Player> mActivePlayer = new AtomicReference<>();
 
     /** Home menu tree as received from slimserver */
-    private List<Plugin> homeMenu = new Vector<>();
+    private volatile HomeMenu homeMenu = HomeMenu.EMPTY;
+
+    /** Home menu items received so far, while the home menu is being fetched. */
+    private final List<Plugin> pendingHomeMenu = new ArrayList<>();
 
     private final AtomicReference<String> serverVersion = new AtomicReference<>();
 
@@ -99,6 +111,7 @@ public class ConnectionState {
     private void updateConnectionState(@ConnectionStates int connectionState) {
         // Clear data if we were previously connected
         if (isConnected() && !isConnected(connectionState)) {
+            saveSnapshot();
             mEventBus.removeAllStickyEvents();
             setServerVersion(null);
             mPlayers.clear();
@@ -107,7 +120,7 @@ public class ConnectionState {
         mConnectionState = connectionState;
     }
 
-    public void setPlayers(Map<String, Player> players) {
+    public synchronized void setPlayers(Map<String, Player> players) {
         mPlayers.clear();
         mPlayers.putAll(players);
         mEventBus.postSticky(new PlayersChanged(players));
@@ -140,48 +153,80 @@ public class ConnectionState {
         }
     }
 
-    void clearHomeMenu() {
-        homeMenu.clear();
+    synchronized void clearHomeMenu() {
+        pendingHomeMenu.clear();
+        homeMenu = HomeMenu.EMPTY;
     }
 
-    void addToHomeMenu(int count, List<Plugin> items) {
-        homeMenu.addAll(items);
-        if (homeMenu.size() == count) {
+    synchronized void addToHomeMenu(int count, List<Plugin> items) {
+        pendingHomeMenu.addAll(items);
+        if (pendingHomeMenu.size() == count) {
             jiveMainNodes();
+            homeMenu = HomeMenu.EMPTY.with(pendingHomeMenu);
+            pendingHomeMenu.clear();
             mEventBus.postSticky(new HomeMenuEvent(homeMenu));
         }
     }
 
-    void menuStatusEvent(MenuStatusMessage event) {
+    synchronized void menuStatusEvent(MenuStatusMessage event) {
         if (event.playerId.equals(getActivePlayer().getId())) {
-            for (Plugin menuItem : event.menuItems) {
-                Plugin item = null;
-                for (Plugin menu : homeMenu) {
-                    if (menuItem.getId().equals(menu.getId())) {
-                        item = menu;
-                        break;
-                    }
-                }
-                if (item != null) {
-                    homeMenu.remove(item);
-                }
-                if (MenuStatusMessage.ADD.equals(event.menuDirective)) {
-                    homeMenu.add(menuItem);
-                }
+            List<Plugin> menuItems = Arrays.asList(event.menuItems);
+            if (MenuStatusMessage.ADD.equals(event.menuDirective)) {
+                homeMenu = homeMenu.with(menuItems);
+            } else {
+                homeMenu = homeMenu.without(menuItems);
             }
             mEventBus.postSticky(new HomeMenuEvent(homeMenu));
         }
     }
 
+    /** Add the main nodes first, so they are replaced if the server has them. */
     private void jiveMainNodes() {
-        addNode(Plugin.EXTRAS);
-        addNode(Plugin.SETTINGS);
-        addNode(Plugin.ADVANCED_SETTINGS);
+        pendingHomeMenu.addAll(0, Arrays.asList(Plugin.EXTRAS, Plugin.SETTINGS, Plugin.ADVANCED_SETTINGS));
     }
 
-    private void addNode(Plugin plugin) {
-        if (!homeMenu.contains(plugin))
-            homeMenu.add(plugin);
+    /**
+     * Save the players and the home menu, so they can be shown on the next start, see
+     * {@link #restoreSnapshot()}.
+     */
+    private void saveSnapshot() {
+        Player activePlayer = getActivePlayer();
+        if (activePlayer != null) {
+            new ConnectionSnapshot(new ArrayList<>(mPlayers.values()), activePlayer, new ArrayList<>(homeMenu.getItems())).save(mSnapshotFile);
+        }
+    }
+
+    /**
+     * Show the players and the home menu as they were when we were last connected, while we
+     * connect to the server. They are replaced when the players are received from the server.
+     * <p>
+     * This does disk access, so it must not be called on the main thread.
+     */
+    synchronized void restoreSnapshot() {
+        // Don't overwrite the live state, if the server was faster than the disk
+        if (getServerVersion() != null || !mPlayers.isEmpty()) {
+            return;
+        }
+
+        ConnectionSnapshot snapshot = ConnectionSnapshot.load(mSnapshotFile);
+        if (snapshot == null) {
+            return;
+        }
+        Log.i(TAG, "Restored snapshot, active player: " + snapshot.activePlayer);
+
+        Map<String, Player> players = new HashMap<>();
+        for (Player player : snapshot.players) {
+            players.put(player.getId(), player);
+        }
+        mPlayers.putAll(players);
+        mActivePlayer.set(snapshot.activePlayer);
+        homeMenu = HomeMenu.EMPTY.with(snapshot.homeMenu);
+
+        // Post the events which make the UI show the state. Listeners which act on the players
+        // check if we are connected, so they don't send requests for the restored players.
+        mEventBus.postSticky(new PlayersChanged(players));
+        mEventBus.postSticky(new MusicChanged(snapshot.activePlayer, snapshot.activePlayer.getPlayerState()));
+        mEventBus.postSticky(new HomeMenuEvent(homeMenu));
     }
 
     String getServerVersion() {
@@ -26,13 +26,9 @@ import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpScheme;
 import org.eclipse.jetty.http.HttpStatus;
 
-import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.HttpCookie;
@@ -289,10 +285,10 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                 Response response = result.getResponse();
                 int status = response.getStatus();
                 if (status == HttpStatus.OK_200) {
-                    String content = getContentAsString();
-                    if (content != null && content.length() > 0) {
+                    byte[] content = getContent();
+                    if (content != null && content.length > 0) {
                         try {
-                            List<Message.Mutable> messages = parseMessages(content);
+                            List<Message.Mutable> messages = StreamingJsonParser.parseMessages(content);
                             //Log.v(TAG, "Received messages " + messages);
                             for (Message.Mutable message : messages) {
                                 // LMS echoes the data field in the publish response for messages to the
@@ -488,10 +484,10 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
             }
         }
 
-        private void onData(String data) {
+        private void onData(StreamingJsonParser parser) throws IOException {
             try {
-                List<Message.Mutable> messages = parseMessages (data);
-                //Log.v(TAG,"Received messages " + data);
+                List<Message.Mutable> messages = parser.readMessages();
+                //Log.v(TAG,"Received messages " + messages);
                 onMessages(messages);
             } catch (ParseException x) {
                 fail(x, "Exception");
@@ -613,11 +609,11 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
 
     private static class ListeningThread extends Thread {
         private Delegate delegate;
-        private final BufferedReader reader;
+        private final StreamingJsonParser parser;
 
-        public ListeningThread(Delegate delegate, InputStream inputStream) throws UnsupportedEncodingException {
+        public ListeningThread(Delegate delegate, InputStream inputStream) {
             this.delegate = delegate;
-            reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            parser = new StreamingJsonParser(inputStream);
         }
 
         @Override
@@ -639,11 +635,12 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                     }
 
                     if (!chunked) {
-                        String content = read(contentSize);
-                        if (content.length() > 0) {
+                        if (contentSize > 0) {
+                            parser.startBody(contentSize);
                             if (status == HttpStatus.OK_200) {
-                                delegate.onData(content);
+                                delegate.onData(parser);
                             }
+                            parser.skipBody();
                         } else {
                             Map<String, Object> failure = new HashMap<>(2);
                             // Convert the 200 into 204 (no content)
@@ -652,13 +649,14 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                             delegate.fail(x, "No content");
                         }
                     } else {
-                        while (!"0".equals(readLine())) {
-                            String data = readLine();
+                        parser.startChunkedBody();
+                        while (parser.hasMoreContent()) {
                             if (status == HttpStatus.OK_200) {
-                                delegate.onData(data);
+                                delegate.onData(parser);
+                            } else {
+                                parser.skipBody();
                             }
                         }
-                        readLine();//Read final/empty chunk
                         delegate.disconnect("End of chunks");
                     }
 
@@ -690,20 +688,7 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
         }
 
         private String readLine() throws IOException {
-            String inputLine = reader.readLine();
-            if (inputLine == null) {
-                throw new EOFException();
-            }
-            return inputLine;
-        }
-
-        private String read(int size) throws IOException {
-            char[] buffer = new char[size];
-            int length = reader.read(buffer);
-            if (length != size) {
-                throw new EOFException("Expected " + size + " characters, but got " + length);
-            }
-            return new String(buffer);
+            return parser.readLine();
         }
     }
 
@@ -130,6 +130,12 @@ public interface ISqueezeService {
     /** Cancel any pending callbacks for client */
     void cancelItemListRequests(Object client);
 
+    /**
+     * Cancel the pending requests of client for the items from start to start + count. Requests
+     * which have not yet been sent to the server are not sent.
+     */
+    void cancelItemListRequests(Object client, int start, int count);
+
     /** Alarm list */
     void alarms(int start, IServiceItemListCallback<Alarm> callback);
 
@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Map;
 
 import uk.org.ngo.squeezer.framework.Item;
+import uk.org.ngo.squeezer.framework.ItemTemplate;
 
 /**
  * Implement this for each extended query format command you wish to support.
@@ -46,6 +47,7 @@ interface ListHandler<T extends Item> {
      * Called for each item received in the current reply. Just store this internally.
      *
      * @param record Item data from Squeezebox Server
+     * @param base The decoded base record of the current reply
      */
-    void add(Map<String, Object> record);
+    void add(Map<String, Object> record, ItemTemplate base);
 }
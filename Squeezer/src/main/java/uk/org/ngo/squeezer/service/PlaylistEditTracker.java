@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import uk.org.ngo.squeezer.Util;
+import uk.org.ngo.squeezer.model.Player;
+import uk.org.ngo.squeezer.service.event.PlaylistChanged;
+
+/**
+ * Infers how the current playlist of a player changed, from the playlist commands we sent and
+ * the number of tracks reported by the server, so copies of the playlist can be edited instead
+ * of fetched again.
+ * <p>
+ * Each command that edits the playlist is expected to change the playlist timestamp once, shortly
+ * after it is sent. If the reported number of tracks or current index doesn't match the expected
+ * edit, e.g. because another controller also edited the playlist, the change is not known, and
+ * any further expected edits are dropped. Expected edits which are not seen in time, e.g. because
+ * the server ignored the command, are dropped too, so they can't be matched to a later change.
+ * <p>
+ * Commands are sent from the main thread and status is parsed on a background thread, hence the
+ * synchronization.
+ */
+class PlaylistEditTracker {
+    private enum Command {
+        APPEND,
+        INSERT_NEXT,
+        DELETE,
+        MOVE
+    }
+
+    /** How long after the command is sent the playlist change is expected. */
+    private static final long EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static class ExpectedEdit {
+        private final Command command;
+        private final int position;
+        private final int toPosition;
+        private final long sentAt;
+
+        private ExpectedEdit(Command command, int position, int toPosition, long sentAt) {
+            this.command = command;
+            this.position = position;
+            this.toPosition = toPosition;
+            this.sentAt = sentAt;
+        }
+    }
+
+    /** Expected edits by player id, in the order the commands were sent. */
+    private final Map<String, Deque<ExpectedEdit>> expectedEdits = new HashMap<>();
+
+    private final Ticker ticker;
+
+    PlaylistEditTracker() {
+        this(Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    PlaylistEditTracker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * Register a command sent to the server, if it edits the playlist.
+     */
+    synchronized void onCommand(Player player, String[] cmd, Map<String, Object> params) {
+        if (player == null || cmd.length == 0) {
+            return;
+        }
+
+        long now = ticker.read();
+        ExpectedEdit edit = null;
+        if ("playlistcontrol".equals(cmd[0])) {
+            Object command = params.get("cmd");
+            if ("add".equals(command)) {
+                edit = new ExpectedEdit(Command.APPEND, 0, 0, now);
+            } else if ("insert".equals(command)) {
+                edit = new ExpectedEdit(Command.INSERT_NEXT, 0, 0, now);
+            }
+        } else if ("playlist".equals(cmd[0]) && cmd.length > 1) {
+            switch (cmd[1]) {
+                case "add":
+                case "append":
+                case "addtracks":
+                    edit = new ExpectedEdit(Command.APPEND, 0, 0, now);
+                    break;
+                case "insert":
+                case "inserttracks":
+                    edit = new ExpectedEdit(Command.INSERT_NEXT, 0, 0, now);
+                    break;
+                case "delete":
+                    if (cmd.length > 2) {
+                        edit = new ExpectedEdit(Command.DELETE, Util.getInt(cmd[2], -1), 0, now);
+                    }
+                    break;
+                case "move":
+                    if (cmd.length > 3) {
+                        edit = new ExpectedEdit(Command.MOVE, Util.getInt(cmd[2], -1), Util.getInt(cmd[3], -1), now);
+                    }
+                    break;
+            }
+        }
+
+        if (edit != null) {
+            Deque<ExpectedEdit> edits = expectedEdits.get(player.getId());
+            if (edits == null) {
+                edits = new ArrayDeque<>();
+                expectedEdits.put(player.getId(), edits);
+            }
+            edits.addLast(edit);
+        }
+    }
+
+    /**
+     * Called when the playlist timestamp of a player has changed.
+     *
+     * @param oldCount Number of tracks before the change
+     * @param oldIndex Index of the current track before the change
+     * @param newCount Number of tracks after the change
+     * @param newIndex Index of the current track after the change
+     * @return The change, or null if it is not known
+     */
+    @Nullable
+    synchronized PlaylistChanged.Edit onPlaylistChanged(Player player, int oldCount, int oldIndex, int newCount, int newIndex) {
+        Deque<ExpectedEdit> edits = expectedEdits.get(player.getId());
+        if (edits == null) {
+            return null;
+        }
+
+        long now = ticker.read();
+        while (!edits.isEmpty() && now - edits.peekFirst().sentAt > EXPIRY_NANOS) {
+            edits.removeFirst();
+        }
+        ExpectedEdit expected = edits.pollFirst();
+        if (expected == null) {
+            return null;
+        }
+
+        PlaylistChanged.Edit edit = null;
+        switch (expected.command) {
+            case APPEND:
+                if (newCount > oldCount && (newIndex == oldIndex || oldCount == 0)) {
+                    edit = PlaylistChanged.Edit.insert(oldCount, newCount - oldCount);
+                }
+                break;
+            case INSERT_NEXT:
+                if (newCount > oldCount && (newIndex == oldIndex || oldCount == 0)) {
+                    edit = PlaylistChanged.Edit.insert(Math.min(oldIndex + 1, oldCount), newCount - oldCount);
+                }
+                break;
+            case DELETE:
+                if (newCount == oldCount - 1 && expected.position >= 0 && expected.position < oldCount
+                        && (expected.position == oldIndex || newIndex == indexAfterDelete(expected.position, oldIndex))) {
+                    edit = PlaylistChanged.Edit.delete(expected.position);
+                }
+                break;
+            case MOVE:
+                if (newCount == oldCount && expected.position >= 0 && expected.position < oldCount
+                        && expected.toPosition >= 0 && expected.toPosition < oldCount
+                        && newIndex == indexAfterMove(expected.position, expected.toPosition, oldIndex)) {
+                    edit = PlaylistChanged.Edit.move(expected.position, expected.toPosition);
+                }
+                break;
+        }
+
+        if (edit == null) {
+            edits.clear();
+        }
+        return edit;
+    }
+
+    /**
+     * @return The index of the current track after the track at the given position, which is not
+     * the current track, is deleted
+     */
+    private static int indexAfterDelete(int position, int index) {
+        return (position < index ? index - 1 : index);
+    }
+
+    /** @return The index of the current track after a track is moved */
+    private static int indexAfterMove(int from, int to, int index) {
+        if (from == index) {
+            return to;
+        }
+        if (from < index && to >= index) {
+            return index - 1;
+        }
+        if (from > index && to <= index) {
+            return index + 1;
+        }
+        return index;
+    }
+
+    /** Forget all expected edits, e.g. when the connection to the server is lost. */
+    synchronized void clear() {
+        expectedEdits.clear();
+    }
+}
@@ -84,6 +84,12 @@ interface SlimClient {
      */
     void cancelClientRequests(Object client);
 
+    /**
+     * Notify that the specified client no longer wants the items from start to start + count.
+     * Requests for them which have not been sent are not sent, and replies are ignored.
+     */
+    void cancelClientRequests(Object client, int start, int count);
+
     void requestPlayerStatus(Player player);
 
     void subscribePlayerStatus(Player newActivePlayer, PlayerState.PlayerSubscriptionType subscriptionType);
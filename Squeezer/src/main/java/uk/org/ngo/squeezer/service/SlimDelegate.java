@@ -55,6 +55,10 @@ class SlimDelegate {
         mClient.cancelClientRequests(client);
     }
 
+    void cancelClientRequests(Object client, int start, int count) {
+        mClient.cancelClientRequests(client, start, count);
+    }
+
 
     void requestPlayerStatus(Player player) {
         mClient.requestPlayerStatus(player);
@@ -102,6 +106,10 @@ class SlimDelegate {
         return new Request<>(mClient, player, start, callback);
     }
 
+    <T extends Item> Request requestItems(Player player, int start, int pageSize, IServiceItemListCallback<T> callback) {
+        return new Request<>(mClient, player, start, pageSize, callback);
+    }
+
     <T extends Item> Request requestItems(Player player, IServiceItemListCallback<T> callback) {
         return new Request<>(mClient, player, 0, 200, callback);
     }
@@ -126,6 +134,10 @@ class SlimDelegate {
         return mClient.getConnectionState().getPlayers();
     }
 
+    void restoreConnectionSnapshot() {
+        mClient.getConnectionState().restoreSnapshot();
+    }
+
     void clearHomeMenu() {
         mClient.getConnectionState().clearHomeMenu();
     }
@@ -33,7 +33,9 @@ import android.media.MediaMetadata;
 import android.net.wifi.WifiManager;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
 
 import androidx.annotation.DrawableRes;
@@ -55,13 +57,22 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
+import de.greenrobot.event.EventBusException;
+import de.greenrobot.event.SubscriberExceptionEvent;
+import uk.org.ngo.squeezer.BuildConfig;
 import uk.org.ngo.squeezer.NowPlayingActivity;
 import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.R;
@@ -80,6 +91,7 @@ import uk.org.ngo.squeezer.service.event.HandshakeComplete;
 import uk.org.ngo.squeezer.service.event.MusicChanged;
 import uk.org.ngo.squeezer.service.event.PlayStatusChanged;
 import uk.org.ngo.squeezer.service.event.PlayerStateChanged;
+import uk.org.ngo.squeezer.service.event.PlayerVolume;
 import uk.org.ngo.squeezer.service.event.PlayersChanged;
 import uk.org.ngo.squeezer.service.event.SongTimeChanged;
 import uk.org.ngo.squeezer.util.ImageFetcher;
@@ -130,6 +142,9 @@ public class SqueezeService extends Service {
 
     private final SlimDelegate mDelegate = new SlimDelegate(mEventBus);
 
+    /** Fetches artwork for the tracks after the current track. */
+    private ArtworkPrefetcher mArtworkPrefetcher;
+
     /**
      * Is scrobbling enabled?
      */
@@ -189,6 +204,16 @@ public class SqueezeService extends Service {
 
         cachePreferences();
 
+        mArtworkPrefetcher = new ArtworkPrefetcher(this, mDelegate);
+
+        // Show the state from when we were last connected, until we are connected again
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDelegate.restoreConnectionSnapshot();
+            }
+        });
+
         setWifiLock(((WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE)).createWifiLock(
                 WifiManager.WIFI_MODE_FULL, "Squeezer_WifiLock"));
 
@@ -643,6 +668,7 @@ public class SqueezeService extends Service {
             startForeground();
         } else {
             mHandshakeComplete = false;
+            mArtworkPrefetcher.reset();
             stopForeground();
         }
     }
@@ -751,14 +777,31 @@ public class SqueezeService extends Service {
     }
 
     public void onEvent(MusicChanged event) {
+        // Ignore the state restored from the last connection
+        if (!mDelegate.isConnected()) {
+            return;
+        }
+
         if (event.player.equals(mDelegate.getActivePlayer())) {
             updateOngoingNotification();
+            if (mHandshakeComplete) {
+                mArtworkPrefetcher.prefetch(event.player);
+            }
         }
     }
 
     public void onEvent(PlayersChanged event) {
+        // Ignore the players restored from the last connection, they are replaced when the
+        // players are received from the server.
+        if (!mDelegate.isConnected()) {
+            return;
+        }
+
         // Figure out the new active player, let everyone know.
         changeActivePlayer(getPreferredPlayer(event.players.values()));
+
+        // New players need a subscription even if the active player is unchanged
+        updateAllPlayerSubscriptionStates();
     }
 
     /**
@@ -1191,6 +1234,11 @@ public class SqueezeService extends Service {
             mDelegate.cancelClientRequests(client);
         }
 
+        @Override
+        public void cancelItemListRequests(Object client, int start, int count) {
+            mDelegate.cancelClientRequests(client, start, count);
+        }
+
         @Override
         public void alarms(int start, IServiceItemListCallback<Alarm> callback) {
             if (!isConnected()) {
@@ -1309,54 +1357,230 @@ public class SqueezeService extends Service {
     }
 
     /**
-     * Calculate and set player subscription states every time a client of the bus
-     * un/registers.
+     * Calculate and set player subscription states when a client of the bus un/registers, and
+     * the set of subscribed events that determine them changes.
      * <p>
      * For example, this ensures that if a new client subscribes and needs real
      * time updates, the player subscription states will be updated accordingly.
+     * <p>
+     * Bursts of {@link PlayerStateChanged}, {@link SongTimeChanged} and {@link PlayerVolume}
+     * events for a player, posted from a background thread, are coalesced for
+     * <code>onEventMainThread</code> subscribers, so only the latest is delivered when the main
+     * thread gets to it. <code>onEvent</code> subscribers still receive every event on the posting
+     * thread, in the order they are posted. Other thread modes are not supported for these events,
+     * and registering a subscriber that uses them fails.
      */
     class EventBus extends de.greenrobot.event.EventBus {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        /** The latest event waiting to be posted, by event type and player. */
+        private final Map<List<Object>, Object> mPendingEvents = new HashMap<>();
+
+        /**
+         * Subscriber methods for the coalesced event types. These events are delivered here
+         * rather than by the superclass, which can't deliver to one thread mode only.
+         */
+        private final List<CoalescedSubscription> mCoalescedSubscriptions = new CopyOnWriteArrayList<>();
+
+        private boolean mPlayerStateSubscribed;
+        private boolean mSongTimeSubscribed;
 
         @Override
         public void register(Object subscriber) {
+            List<CoalescedSubscription> subscriptions = findCoalescedSubscriptions(subscriber);
             super.register(subscriber);
-            updateAllPlayerSubscriptionStates();
+            mCoalescedSubscriptions.addAll(subscriptions);
+            maybeUpdatePlayerSubscriptionStates();
         }
 
         @Override
         public void register(Object subscriber, int priority) {
+            List<CoalescedSubscription> subscriptions = findCoalescedSubscriptions(subscriber);
             super.register(subscriber, priority);
-            updateAllPlayerSubscriptionStates();
+            mCoalescedSubscriptions.addAll(subscriptions);
+            maybeUpdatePlayerSubscriptionStates();
         }
 
         @Override
         public void post(Object event) {
-            Log.v("EventBus", "post() " + event.getClass().getSimpleName() + ": " + event);
-            super.post(event);
+            if (BuildConfig.DEBUG) {
+                Log.v("EventBus", "post() " + event.getClass().getSimpleName() + ": " + event);
+            }
+
+            final List<Object> key = coalescingKey(event);
+            if (key == null) {
+                super.post(event);
+                return;
+            }
+
+            deliver(event, false);
+
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                // Supersedes any pending event
+                synchronized (mPendingEvents) {
+                    mPendingEvents.remove(key);
+                }
+                deliver(event, true);
+                return;
+            }
+
+            synchronized (mPendingEvents) {
+                if (mPendingEvents.put(key, event) != null) {
+                    return; // Already scheduled, and will post this event instead
+                }
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Object latest;
+                    synchronized (mPendingEvents) {
+                        latest = mPendingEvents.remove(key);
+                    }
+                    if (latest != null) {
+                        deliver(latest, true);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Call the subscribers of the given thread mode for a coalesced event type on this thread.
+         */
+        private void deliver(Object event, boolean mainThread) {
+            for (CoalescedSubscription subscription : mCoalescedSubscriptions) {
+                if (subscription.mainThread == mainThread && subscription.eventType.isInstance(event)) {
+                    try {
+                        subscription.method.invoke(subscription.subscriber, event);
+                    } catch (InvocationTargetException e) {
+                        handleSubscriberException(subscription, event, e.getCause());
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException("Unexpected exception", e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Report an exception thrown by a subscriber the same way as the superclass does with its
+         * default configuration: log it, and post a {@link SubscriberExceptionEvent}.
+         */
+        private void handleSubscriberException(CoalescedSubscription subscription, Object event, Throwable cause) {
+            Log.e(TAG, "Could not dispatch event: " + event.getClass()
+                    + " to subscribing class " + subscription.subscriber.getClass(), cause);
+            post(new SubscriberExceptionEvent(this, cause, event, subscription.subscriber));
+        }
+
+        /**
+         * @return The subscriptions of the given subscriber to the coalesced event types.
+         * @throws EventBusException If the subscriber uses a thread mode which is not supported
+         *     for these events.
+         */
+        private List<CoalescedSubscription> findCoalescedSubscriptions(Object subscriber) {
+            List<CoalescedSubscription> subscriptions = new ArrayList<>();
+            for (Method method : subscriber.getClass().getMethods()) {
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                if (parameterTypes.length == 1 && COALESCED_EVENT_TYPES.contains(parameterTypes[0])) {
+                    method.setAccessible(true);
+                    if ("onEvent".equals(method.getName())) {
+                        subscriptions.add(new CoalescedSubscription(subscriber, method, parameterTypes[0], false));
+                    } else if ("onEventMainThread".equals(method.getName())) {
+                        subscriptions.add(new CoalescedSubscription(subscriber, method, parameterTypes[0], true));
+                    } else if (method.getName().startsWith("onEvent")) {
+                        throw new EventBusException("Unsupported thread mode for " + parameterTypes[0].getSimpleName()
+                                + ", use onEvent or onEventMainThread: " + method);
+                    }
+                }
+            }
+            return subscriptions;
+        }
+
+        private void removeCoalescedSubscriptions(Object subscriber) {
+            for (CoalescedSubscription subscription : mCoalescedSubscriptions) {
+                if (subscription.subscriber == subscriber) {
+                    mCoalescedSubscriptions.remove(subscription);
+                }
+            }
+        }
+
+        /**
+         * @return The key of events that supersede each other, or null if the event must always
+         *     be delivered.
+         */
+        @Nullable
+        private List<Object> coalescingKey(Object event) {
+            if (event instanceof PlayerStateChanged) {
+                return Arrays.<Object>asList(PlayerStateChanged.class, ((PlayerStateChanged) event).player);
+            }
+            if (event instanceof SongTimeChanged) {
+                return Arrays.<Object>asList(SongTimeChanged.class, ((SongTimeChanged) event).player);
+            }
+            if (event instanceof PlayerVolume) {
+                return Arrays.<Object>asList(PlayerVolume.class, ((PlayerVolume) event).player);
+            }
+            return null;
         }
 
         @Override
         public void postSticky(Object event) {
-            Log.v("EventBus", "postSticky() " + event.getClass().getSimpleName() + ": " + event);
+            if (BuildConfig.DEBUG) {
+                Log.v("EventBus", "postSticky() " + event.getClass().getSimpleName() + ": " + event);
+            }
             super.postSticky(event);
         }
 
         @Override
         public void registerSticky(Object subscriber) {
+            List<CoalescedSubscription> subscriptions = findCoalescedSubscriptions(subscriber);
             super.registerSticky(subscriber);
-            updateAllPlayerSubscriptionStates();
+            mCoalescedSubscriptions.addAll(subscriptions);
+            maybeUpdatePlayerSubscriptionStates();
         }
 
         @Override
         public void registerSticky(Object subscriber, int priority) {
+            List<CoalescedSubscription> subscriptions = findCoalescedSubscriptions(subscriber);
             super.registerSticky(subscriber, priority);
-            updateAllPlayerSubscriptionStates();
+            mCoalescedSubscriptions.addAll(subscriptions);
+            maybeUpdatePlayerSubscriptionStates();
         }
 
         @Override
         public synchronized void unregister(Object subscriber) {
             super.unregister(subscriber);
-            updateAllPlayerSubscriptionStates();
+            removeCoalescedSubscriptions(subscriber);
+            maybeUpdatePlayerSubscriptionStates();
+        }
+
+        /**
+         * The subscription types only depend on whether there are subscribers for
+         * {@link PlayerStateChanged} and {@link SongTimeChanged}, so only recalculate them when
+         * that changes.
+         */
+        private synchronized void maybeUpdatePlayerSubscriptionStates() {
+            boolean playerStateSubscribed = hasSubscriberForEvent(PlayerStateChanged.class);
+            boolean songTimeSubscribed = hasSubscriberForEvent(SongTimeChanged.class);
+            if (playerStateSubscribed != mPlayerStateSubscribed || songTimeSubscribed != mSongTimeSubscribed) {
+                mPlayerStateSubscribed = playerStateSubscribed;
+                mSongTimeSubscribed = songTimeSubscribed;
+                updateAllPlayerSubscriptionStates();
+            }
+        }
+    }
+
+    private static final Set<Class<?>> COALESCED_EVENT_TYPES = new HashSet<Class<?>>(Arrays.asList(
+            PlayerStateChanged.class, SongTimeChanged.class, PlayerVolume.class));
+
+    private static class CoalescedSubscription {
+        final Object subscriber;
+        final Method method;
+        final Class<?> eventType;
+        final boolean mainThread;
+
+        private CoalescedSubscription(Object subscriber, Method method, Class<?> eventType, boolean mainThread) {
+            this.subscriber = subscriber;
+            this.method = method;
+            this.eventType = eventType;
+            this.mainThread = mainThread;
         }
     }
 }
@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import org.cometd.bayeux.Message;
+import org.cometd.common.HashMapMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental JSON parser for the Bayeux messages received from the server.
+ * <p>
+ * Bytes are decoded straight from the input stream into the maps and arrays that CometD
+ * expects, without first reading the response body or HTTP chunk into a String. The HTTP
+ * framing (header lines, Content-Length and chunked bodies) is handled here too, so the parser
+ * knows where each response body ends.
+ * <p>
+ * As the same few dozen object keys repeat for every item in a list, keys are taken from a
+ * small cache instead of creating a new String for each of them.
+ * <p>
+ * Objects are returned as {@link Map}, arrays as <code>Object[]</code>, integers as {@link Long}
+ * and other numbers as {@link Double}, same as the CometD JSON parser.
+ * <p>
+ * The bytes of the data object of each message are kept as received (see
+ * {@link #getRawData(Message)}), so it can be stored without encoding it again.
+ * <p>
+ * This class is not thread safe.
+ */
+class StreamingJsonParser {
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Number of slots in the key cache. Must be a power of two. */
+    private static final int KEY_CACHE_SIZE = 512;
+
+    /** Longer keys are not cached. */
+    private static final int MAX_CACHED_KEY_LENGTH = 32;
+
+    /** Maximum nesting of arrays for which we keep a scratch list. */
+    private static final int MAX_SCRATCH_DEPTH = 16;
+
+    private final InputStream inputStream;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    /** Characters of the string, key or number currently being parsed. */
+    private char[] chars = new char[256];
+
+    /**
+     * Characters of the header line being read. Separate from {@link #chars}, as a new chunk
+     * may start in the middle of a string.
+     */
+    private final StringBuilder line = new StringBuilder();
+
+    private final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+    /** Reused lists holding the elements of the arrays being parsed, by nesting level. */
+    private final List<List<Object>> scratchLists = new ArrayList<>();
+    private int depth;
+
+    /** True if the current body is sent with chunked transfer encoding. */
+    private boolean chunked;
+
+    /** Bytes left of the current body, or of the current chunk if the body is chunked. */
+    private int remaining;
+
+    /** True when all of the current body has been read. */
+    private boolean endOfBody = true;
+
+    /** True if we have read the size line for at least one chunk of the current body. */
+    private boolean inChunk;
+
+    /** A body byte that was read, but not consumed. -1 if none. */
+    private int pushBack = -1;
+
+    /** Number of bytes of the current body that has been consumed, for error messages. */
+    private int offset;
+
+    /** The body bytes consumed while {@link #recording} is set. */
+    private byte[] recorded = new byte[1024];
+    private int recordedLength;
+    private boolean recording;
+
+    StreamingJsonParser(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /** A message which also holds the bytes of its data object as they were received. */
+    private static class RawDataMessage extends HashMapMessage {
+        private byte[] rawData;
+    }
+
+    /**
+     * @return The JSON of the data object of a message parsed by this class, exactly as it was
+     *     received, or null if the message has no data object, or was not parsed by this class.
+     */
+    static byte[] getRawData(Message message) {
+        return (message instanceof RawDataMessage ? ((RawDataMessage) message).rawData : null);
+    }
+
+    /**
+     * Parse a complete response body.
+     *
+     * @param content The bytes of the body.
+     * @return The messages in the body.
+     * @throws ParseException If the content is not a valid JSON object or array of objects.
+     */
+    static List<Message.Mutable> parseMessages(byte[] content) throws ParseException {
+        StreamingJsonParser parser = new StreamingJsonParser(new ByteArrayInputStream(content));
+        parser.startBody(content.length);
+        try {
+            return parser.readMessages();
+        } catch (IOException e) {
+            throw new ParseException("Unexpected end of content", parser.offset);
+        }
+    }
+
+    /**
+     * Read a line of HTTP header text, without the line terminator.
+     *
+     * @throws EOFException If the stream ends before the end of the line.
+     */
+    String readLine() throws IOException {
+        line.setLength(0);
+        int b;
+        while ((b = readRawByte()) != '\n') {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    /** Start reading a body of the supplied length. */
+    void startBody(int contentLength) {
+        chunked = false;
+        remaining = contentLength;
+        endOfBody = false;
+        pushBack = -1;
+        offset = 0;
+    }
+
+    /** Start reading a body sent with chunked transfer encoding. */
+    void startChunkedBody() {
+        chunked = true;
+        remaining = 0;
+        inChunk = false;
+        endOfBody = false;
+        pushBack = -1;
+        offset = 0;
+    }
+
+    /**
+     * Skip whitespace in the body, and determine if there is another JSON value to read.
+     * <p>
+     * For a chunked body this blocks until the next chunk arrives.
+     */
+    boolean hasMoreContent() throws IOException {
+        int b = nextNonWhitespace();
+        if (b == -1) {
+            return false;
+        }
+        pushBack = b;
+        return true;
+    }
+
+    /** Discard the rest of the current body. */
+    void skipBody() throws IOException {
+        pushBack = -1;
+        //noinspection StatementWithEmptyBody
+        while (read() != -1) {
+        }
+    }
+
+    /**
+     * Read the next JSON value from the body, which must be either a single message or an
+     * array of messages.
+     */
+    List<Message.Mutable> readMessages() throws IOException, ParseException {
+        int b = nextNonWhitespace();
+        if (b == '{') {
+            return Collections.singletonList((Message.Mutable) parseObject(new RawDataMessage()));
+        }
+        if (b != '[') {
+            throw unexpected(b);
+        }
+
+        List<Message.Mutable> messages = new ArrayList<>();
+        b = nextNonWhitespace();
+        if (b == ']') {
+            return messages;
+        }
+        while (true) {
+            if (b != '{') {
+                throw unexpected(b);
+            }
+            messages.add((Message.Mutable) parseObject(new RawDataMessage()));
+            b = nextNonWhitespace();
+            if (b == ']') {
+                return messages;
+            }
+            if (b != ',') {
+                throw unexpected(b);
+            }
+            b = nextNonWhitespace();
+        }
+    }
+
+    private Object parseValue(int b) throws IOException, ParseException {
+        switch (b) {
+            case '{':
+                return parseObject(new HashMap<String, Object>());
+            case '[':
+                return parseArray();
+            case '"':
+                return parseString(false);
+            case 't':
+                expect("rue");
+                return Boolean.TRUE;
+            case 'f':
+                expect("alse");
+                return Boolean.FALSE;
+            case 'n':
+                expect("ull");
+                return null;
+            default:
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    return parseNumber(b);
+                }
+                throw unexpected(b);
+        }
+    }
+
+    /** Parse the members of an object into the supplied map. The '{' is already consumed. */
+    private Map<String, Object> parseObject(Map<String, Object> object) throws IOException, ParseException {
+        int b = nextNonWhitespace();
+        if (b == '}') {
+            return object;
+        }
+        while (true) {
+            if (b != '"') {
+                throw unexpected(b);
+            }
+            String key = parseString(true);
+            b = nextNonWhitespace();
+            if (b != ':') {
+                throw unexpected(b);
+            }
+            b = nextNonWhitespace();
+            if (b == '{' && object instanceof RawDataMessage && Message.DATA_FIELD.equals(key)) {
+                object.put(key, parseRecordedObject((RawDataMessage) object));
+            } else {
+                object.put(key, parseValue(b));
+            }
+            b = nextNonWhitespace();
+            if (b == '}') {
+                return object;
+            }
+            if (b != ',') {
+                throw unexpected(b);
+            }
+            b = nextNonWhitespace();
+        }
+    }
+
+    /**
+     * Parse the data object of a message, and keep its bytes in the message. The '{' is already
+     * consumed.
+     */
+    private Map<String, Object> parseRecordedObject(RawDataMessage message) throws IOException, ParseException {
+        recordedLength = 0;
+        record('{');
+        recording = true;
+        try {
+            Map<String, Object> object = parseObject(new HashMap<String, Object>());
+            message.rawData = Arrays.copyOf(recorded, recordedLength);
+            return object;
+        } finally {
+            recording = false;
+        }
+    }
+
+    private void record(int b) {
+        if (recordedLength == recorded.length) {
+            recorded = Arrays.copyOf(recorded, recorded.length * 2);
+        }
+        recorded[recordedLength++] = (byte) b;
+    }
+
+    /** Parse the elements of an array. The '[' is already consumed. */
+    private Object[] parseArray() throws IOException, ParseException {
+        int b = nextNonWhitespace();
+        if (b == ']') {
+            return new Object[0];
+        }
+
+        List<Object> elements = (depth < MAX_SCRATCH_DEPTH) ? scratchList(depth) : new ArrayList<>();
+        depth++;
+        try {
+            while (true) {
+                elements.add(parseValue(b));
+                b = nextNonWhitespace();
+                if (b == ']') {
+                    return elements.toArray();
+                }
+                if (b != ',') {
+                    throw unexpected(b);
+                }
+                b = nextNonWhitespace();
+            }
+        } finally {
+            depth--;
+            elements.clear();
+        }
+    }
+
+    private List<Object> scratchList(int level) {
+        while (scratchLists.size() <= level) {
+            scratchLists.add(new ArrayList<>());
+        }
+        return scratchLists.get(level);
+    }
+
+    /**
+     * Parse a string, decoding UTF-8 and escape sequences. The opening quote is already consumed.
+     *
+     * @param isKey If true, the string is looked up in, and added to, the key cache.
+     */
+    private String parseString(boolean isKey) throws IOException, ParseException {
+        int length = 0;
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                break;
+            }
+            if (b == -1) {
+                throw unexpected(b);
+            }
+            ensureCapacity(length + 2);
+            if (b == '\\') {
+                chars[length++] = parseEscape();
+            } else if (b < 0x80) {
+                chars[length++] = (char) b;
+            } else if ((b & 0xe0) == 0xc0) {
+                chars[length++] = (char) (((b & 0x1f) << 6) | continuation());
+            } else if ((b & 0xf0) == 0xe0) {
+                chars[length++] = (char) (((b & 0x0f) << 12) | (continuation() << 6) | continuation());
+            } else if ((b & 0xf8) == 0xf0) {
+                int codePoint = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+                length += Character.toChars(codePoint, chars, length);
+            } else {
+                throw new ParseException("Invalid UTF-8 sequence", offset);
+            }
+        }
+
+        return isKey ? key(length) : new String(chars, 0, length);
+    }
+
+    private int continuation() throws IOException, ParseException {
+        int b = read();
+        if ((b & 0xc0) != 0x80) {
+            throw new ParseException("Invalid UTF-8 sequence", offset);
+        }
+        return b & 0x3f;
+    }
+
+    private char parseEscape() throws IOException, ParseException {
+        int b = read();
+        switch (b) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) b;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u': {
+                int c = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw new ParseException("Invalid unicode escape", offset);
+                    }
+                    c = (c << 4) | digit;
+                }
+                return (char) c;
+            }
+            default:
+                throw unexpected(b);
+        }
+    }
+
+    /** Return a String with the first length characters of {@link #chars}, from the key cache if possible. */
+    private String key(int length) {
+        if (length > MAX_CACHED_KEY_LENGTH) {
+            return new String(chars, 0, length);
+        }
+
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+
+        String key = keyCache[slot];
+        if (key != null && key.length() == length) {
+            int i = 0;
+            while (i < length && key.charAt(i) == chars[i]) {
+                i++;
+            }
+            if (i == length) {
+                return key;
+            }
+        }
+
+        key = new String(chars, 0, length);
+        keyCache[slot] = key;
+        return key;
+    }
+
+    private Object parseNumber(int b) throws IOException, ParseException {
+        int length = 0;
+        boolean integer = true;
+        boolean negative = (b == '-');
+        long value = 0;
+        int digits = 0;
+        while (true) {
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                digits++;
+            } else if (b == '.' || b == 'e' || b == 'E') {
+                integer = false;
+            } else if (!(b == '-' || b == '+')) {
+                break;
+            }
+            ensureCapacity(length + 1);
+            chars[length++] = (char) b;
+            b = read();
+        }
+        pushBack = b;
+
+        if (integer && digits > 0 && digits <= 18) {
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(chars, 0, length));
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid number", offset);
+        }
+    }
+
+    private void expect(String literal) throws IOException, ParseException {
+        for (int i = 0; i < literal.length(); i++) {
+            int b = read();
+            if (b != literal.charAt(i)) {
+                throw unexpected(b);
+            }
+        }
+    }
+
+    private ParseException unexpected(int b) {
+        return new ParseException(b == -1 ? "Unexpected end of content" : "Unexpected character '" + (char) b + "'", offset);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int b;
+        do {
+            b = read();
+        } while (b == ' ' || b == '\n' || b == '\r' || b == '\t');
+        return b;
+    }
+
+    /** Return the next byte of the current body, or -1 at the end of the body. */
+    private int read() throws IOException {
+        if (pushBack != -1) {
+            int b = pushBack;
+            pushBack = -1;
+            return b;
+        }
+        if (remaining == 0) {
+            if (!chunked || endOfBody || !nextChunk()) {
+                endOfBody = true;
+                return -1;
+            }
+        }
+        remaining--;
+        offset++;
+        int b = readRawByte();
+        if (recording) {
+            record(b);
+        }
+        return b;
+    }
+
+    /** Read the framing of the next chunk. Returns false at the last (empty) chunk. */
+    private boolean nextChunk() throws IOException {
+        if (inChunk) {
+            readLine(); // CRLF after the chunk data
+        }
+        inChunk = true;
+
+        String sizeLine = readLine();
+        int extension = sizeLine.indexOf(';');
+        if (extension >= 0) {
+            sizeLine = sizeLine.substring(0, extension);
+        }
+        int size;
+        try {
+            size = Integer.parseInt(sizeLine.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + sizeLine);
+        }
+        if (size == 0) {
+            readLine(); // Final CRLF, we don't expect trailers
+            return false;
+        }
+        remaining = size;
+        return true;
+    }
+
+    private int readRawByte() throws IOException {
+        if (position == limit) {
+            int count = inputStream.read(buffer, 0, buffer.length);
+            if (count <= 0) {
+                throw new EOFException();
+            }
+            position = 0;
+            limit = count;
+        }
+        return buffer[position++] & 0xff;
+    }
+}
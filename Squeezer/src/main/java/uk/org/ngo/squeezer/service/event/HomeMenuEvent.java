@@ -18,25 +18,22 @@ package uk.org.ngo.squeezer.service.event;
 
 import androidx.annotation.NonNull;
 
-import java.util.Arrays;
-import java.util.List;
-
-import uk.org.ngo.squeezer.model.Plugin;
+import uk.org.ngo.squeezer.model.HomeMenu;
 
 /** Event sent when the home menu has changed. */
 public class HomeMenuEvent {
 
     @NonNull
-    public List<Plugin> menuItems;
+    public final HomeMenu menu;
 
-    public HomeMenuEvent(@NonNull List<Plugin> menuItems) {
-        this.menuItems = menuItems;
+    public HomeMenuEvent(@NonNull HomeMenu menu) {
+        this.menu = menu;
     }
 
     @Override
     public String toString() {
         return "HomeMenuEvent{" +
-                "menuItems=" + menuItems +
+                "menu=" + menu +
                 '}';
     }
 }
@@ -17,23 +17,84 @@
 package uk.org.ngo.squeezer.service.event;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import uk.org.ngo.squeezer.model.Player;
 
-/** Event sent when a player's play status changes. */
+/** Event sent when a player's current playlist changes. */
 public class PlaylistChanged {
     /** The affected player. */
     @NonNull
     public final Player player;
 
+    /** The change to the playlist, or null if it is not known. */
+    @Nullable
+    public final Edit edit;
+
     public PlaylistChanged(@NonNull Player player) {
+        this(player, null);
+    }
+
+    public PlaylistChanged(@NonNull Player player, @Nullable Edit edit) {
         this.player = player;
+        this.edit = edit;
     }
 
     @Override
     public String toString() {
-        return "PlayStatusChanged{" +
+        return "PlaylistChanged{" +
                 "player=" + player +
+                ", edit=" + edit +
                 '}';
     }
+
+    /**
+     * A change to the playlist which can be applied to a copy of it, instead of fetching the
+     * whole playlist again.
+     */
+    public static class Edit {
+        public enum Type {
+            /** {@link #count} tracks were inserted at {@link #position}. */
+            INSERT,
+            /** The track at {@link #position} was deleted. */
+            DELETE,
+            /** The track at {@link #position} was moved to {@link #toPosition}. */
+            MOVE
+        }
+
+        @NonNull
+        public final Type type;
+        public final int position;
+        public final int count;
+        public final int toPosition;
+
+        private Edit(@NonNull Type type, int position, int count, int toPosition) {
+            this.type = type;
+            this.position = position;
+            this.count = count;
+            this.toPosition = toPosition;
+        }
+
+        public static Edit insert(int position, int count) {
+            return new Edit(Type.INSERT, position, count, position);
+        }
+
+        public static Edit delete(int position) {
+            return new Edit(Type.DELETE, position, 1, position);
+        }
+
+        public static Edit move(int fromPosition, int toPosition) {
+            return new Edit(Type.MOVE, fromPosition, 1, toPosition);
+        }
+
+        @Override
+        public String toString() {
+            return "Edit{" +
+                    "type=" + type +
+                    ", position=" + position +
+                    ", count=" + count +
+                    ", toPosition=" + toPosition +
+                    '}';
+        }
+    }
 }
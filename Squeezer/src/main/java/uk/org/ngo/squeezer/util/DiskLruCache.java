@@ -18,15 +18,13 @@ package uk.org.ngo.squeezer.util;
 
 import androidx.annotation.NonNull;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
-import java.io.EOFException;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,10 +34,11 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -102,55 +101,47 @@ import java.util.concurrent.TimeUnit;
 public final class DiskLruCache implements Closeable {
     static final String JOURNAL_FILE = "journal";
     static final String JOURNAL_FILE_TMP = "journal.tmp";
-    static final String MAGIC = "libcore.io.DiskLruCache";
-    static final String VERSION_1 = "1";
+    static final int MAGIC = 0x444c5243; // "DLRC"
+    static final int VERSION_2 = 2;
     static final long ANY_SEQUENCE_NUMBER = -1;
-    private static final String CLEAN = "CLEAN";
-    private static final String DIRTY = "DIRTY";
-    private static final String REMOVE = "REMOVE";
-    private static final String READ = "READ";
+    private static final byte CLEAN = 'C';
+    private static final byte DIRTY = 'D';
+    private static final byte REMOVE = 'R';
+    private static final byte READ = 'r';
+
+    /** Size of the journal header: magic, version, app version and value count. */
+    private static final int HEADER_SIZE = 4 * 4;
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final int IO_BUFFER_SIZE = 8 * 1024;
 
     /*
-     * This cache uses a journal file named "journal". A typical journal file
-     * looks like this:
-     *     libcore.io.DiskLruCache
-     *     1
-     *     100
-     *     2
-     *
-     *     CLEAN 3400330d1dfc7f3f7f4b8d4d803dfcf6 832 21054
-     *     DIRTY 335c4c6028171cfddfbaae1a9c313c52
-     *     CLEAN 335c4c6028171cfddfbaae1a9c313c52 3934 2342
-     *     REMOVE 335c4c6028171cfddfbaae1a9c313c52
-     *     DIRTY 1ab96a171faeeee38496d8b330771a7a
-     *     CLEAN 1ab96a171faeeee38496d8b330771a7a 1600 234
-     *     READ 335c4c6028171cfddfbaae1a9c313c52
-     *     READ 3400330d1dfc7f3f7f4b8d4d803dfcf6
+     * This cache uses a binary journal file named "journal", so it can be read
+     * from a memory mapped buffer when the cache is opened, instead of being
+     * parsed line by line. All numbers are big endian.
      *
-     * The first five lines of the journal form its header. They are the
-     * constant string "libcore.io.DiskLruCache", the disk cache's version,
-     * the application's version, the value count, and a blank line.
+     * The journal starts with a header of four ints: the constant MAGIC, the
+     * disk cache's version, the application's version and the value count.
      *
-     * Each of the subsequent lines in the file is a record of the state of a
-     * cache entry. Each line contains space-separated values: a state, a key,
-     * and optional state-specific values.
-     *   o DIRTY lines track that an entry is actively being created or updated.
-     *     Every successful DIRTY action should be followed by a CLEAN or REMOVE
-     *     action. DIRTY lines without a matching CLEAN or REMOVE indicate that
-     *     temporary files may need to be deleted.
-     *   o CLEAN lines track a cache entry that has been successfully published
-     *     and may be read. A publish line is followed by the lengths of each of
-     *     its values.
-     *   o READ lines track accesses for LRU.
-     *   o REMOVE lines track entries that have been deleted.
+     * The header is followed by records of the state of a cache entry. Each
+     * record is a state byte, the length of the key as an unsigned short, the
+     * UTF-8 bytes of the key, and optional state-specific values.
+     *   o DIRTY records track that an entry is actively being created or
+     *     updated. Every successful DIRTY action should be followed by a CLEAN
+     *     or REMOVE action. DIRTY records without a matching CLEAN or REMOVE
+     *     indicate that temporary files may need to be deleted.
+     *   o CLEAN records track a cache entry that has been successfully
+     *     published and may be read. A publish record is followed by the
+     *     lengths of each of its values as longs.
+     *   o READ records track accesses for LRU.
+     *   o REMOVE records track entries that have been deleted.
      *
-     * The journal file is appended to as cache operations occur. The journal may
-     * occasionally be compacted by dropping redundant lines. A temporary file named
-     * "journal.tmp" will be used during compaction; that file should be deleted if
-     * it exists when the cache is opened.
+     * The journal file is appended to as cache operations occur. A record which
+     * was not completely written, e.g. because the process was killed, ends the
+     * journal, and the journal is rebuilt when the cache is opened. The journal
+     * may occasionally be compacted by dropping redundant records. A temporary
+     * file named "journal.tmp" will be used during compaction; that file should
+     * be deleted if it exists when the cache is opened.
      */
 
     private final File directory;
@@ -160,7 +151,7 @@ public final class DiskLruCache implements Closeable {
     private final long maxSize;
     private final int valueCount;
     private long size = 0;
-    private Writer journalWriter;
+    private DataOutputStream journalWriter;
     private final LinkedHashMap<String, Entry> lruEntries
             = new LinkedHashMap<String, Entry>(0, 0.75f, true);
     private int redundantOpCount;
@@ -172,24 +163,6 @@ public final class DiskLruCache implements Closeable {
      */
     private long nextSequenceNumber = 0;
 
-    /* From java.util.Arrays */
-    @SuppressWarnings("unchecked")
-    private static <T> T[] copyOfRange(T[] original, int start, int end) {
-        final int originalLength = original.length; // For exception priority compatibility.
-        if (start > end) {
-            throw new IllegalArgumentException();
-        }
-        if (start < 0 || start > originalLength) {
-            throw new ArrayIndexOutOfBoundsException();
-        }
-        final int resultLength = end - start;
-        final int copyLength = Math.min(resultLength, originalLength - start);
-        final T[] result = (T[]) Array
-                .newInstance(original.getClass().getComponentType(), resultLength);
-        System.arraycopy(original, start, result, 0, copyLength);
-        return result;
-    }
-
     /**
      * Returns the remainder of 'reader' as a string, closing it when done.
      */
@@ -207,34 +180,6 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
-    /**
-     * Returns the ASCII characters up to but not including the next "\r\n", or
-     * "\n".
-     *
-     * @throws java.io.EOFException if the stream is exhausted before the next newline
-     *     character.
-     */
-    public static String readAsciiLine(InputStream in) throws IOException {
-        // TODO: support UTF-8 here instead
-
-        StringBuilder result = new StringBuilder(80);
-        while (true) {
-            int c = in.read();
-            if (c == -1) {
-                throw new EOFException();
-            } else if (c == '\n') {
-                break;
-            }
-
-            result.append((char) c);
-        }
-        int length = result.length();
-        if (length > 0 && result.charAt(length - 1) == '\r') {
-            result.setLength(length - 1);
-        }
-        return result.toString();
-    }
-
     /**
      * Closes 'closeable', ignoring any checked exceptions. Does nothing if 'closeable' is null.
      */
@@ -320,10 +265,13 @@ public final class DiskLruCache implements Closeable {
         DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
         if (cache.journalFile.exists()) {
             try {
-                cache.readJournal();
+                boolean complete = cache.readJournal();
                 cache.processJournal();
-                cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true),
-                        IO_BUFFER_SIZE);
+                if (complete) {
+                    cache.journalWriter = newJournalWriter(cache.journalFile, true);
+                } else {
+                    cache.rebuildJournal();
+                }
                 return cache;
             } catch (IOException journalIsCorrupt) {
 //                System.logW("DiskLruCache " + directory + " is corrupt: "
@@ -339,43 +287,59 @@ public final class DiskLruCache implements Closeable {
         return cache;
     }
 
-    private void readJournal() throws IOException {
-        InputStream in = new BufferedInputStream(new FileInputStream(journalFile), IO_BUFFER_SIZE);
+    /**
+     * Reads the journal from a memory mapped buffer.
+     *
+     * @return false if the last record was not completely written
+     */
+    private boolean readJournal() throws IOException {
+        FileInputStream in = new FileInputStream(journalFile);
         try {
-            String magic = readAsciiLine(in);
-            String version = readAsciiLine(in);
-            String appVersionString = readAsciiLine(in);
-            String valueCountString = readAsciiLine(in);
-            String blank = readAsciiLine(in);
-            if (!MAGIC.equals(magic)
-                    || !VERSION_1.equals(version)
-                    || !Integer.toString(appVersion).equals(appVersionString)
-                    || !Integer.toString(valueCount).equals(valueCountString)
-                    || !"".equals(blank)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (journal.remaining() < HEADER_SIZE) {
+                throw new IOException("journal header is truncated");
+            }
+            int magic = journal.getInt();
+            int version = journal.getInt();
+            int appVersionValue = journal.getInt();
+            int valueCountValue = journal.getInt();
+            if (magic != MAGIC
+                    || version != VERSION_2
+                    || appVersionValue != appVersion
+                    || valueCountValue != valueCount) {
                 throw new IOException("unexpected journal header: ["
-                        + magic + ", " + version + ", " + valueCountString + ", " + blank + "]");
+                        + magic + ", " + version + ", " + appVersionValue + ", " + valueCountValue + "]");
             }
 
-            while (true) {
+            while (journal.hasRemaining()) {
                 try {
-                    readJournalLine(readAsciiLine(in));
-                } catch (EOFException endOfJournal) {
-                    break;
+                    readJournalRecord(journal);
+                } catch (BufferUnderflowException endOfJournal) {
+                    return false;
                 }
             }
+            return true;
         } finally {
             closeQuietly(in);
         }
     }
 
-    private void readJournalLine(String line) throws IOException {
-        String[] parts = line.split(" ");
-        if (parts.length < 2) {
-            throw new IOException("unexpected journal line: " + line);
+    private void readJournalRecord(ByteBuffer journal) throws IOException {
+        // Read the whole record before applying it, so an incomplete record is ignored
+        byte state = journal.get();
+        byte[] keyBytes = new byte[journal.getShort() & 0xffff];
+        journal.get(keyBytes);
+        String key = new String(keyBytes, UTF_8);
+        long[] lengths = null;
+        if (state == CLEAN) {
+            lengths = new long[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                lengths[i] = journal.getLong();
+            }
         }
 
-        String key = parts[1];
-        if (parts[0].equals(REMOVE) && parts.length == 2) {
+        if (state == REMOVE) {
             lruEntries.remove(key);
             return;
         }
@@ -386,17 +350,17 @@ public final class DiskLruCache implements Closeable {
             lruEntries.put(key, entry);
         }
 
-        if (parts[0].equals(CLEAN) && parts.length == 2 + valueCount) {
+        if (state == CLEAN) {
             entry.readable = true;
             entry.currentEditor = null;
-            entry.setLengths(copyOfRange(parts, 2, parts.length));
-        } else if (parts[0].equals(DIRTY) && parts.length == 2) {
+            System.arraycopy(lengths, 0, entry.lengths, 0, valueCount);
+        } else if (state == DIRTY) {
             entry.currentEditor = new Editor(entry);
         } else //noinspection StatementWithEmptyBody
-            if (parts[0].equals(READ) && parts.length == 2) {
+            if (state == READ) {
             // this work was already done by calling lruEntries.get()
         } else {
-            throw new IOException("unexpected journal line: " + line);
+            throw new IOException("unexpected journal record: " + state + " " + key);
         }
     }
 
@@ -432,28 +396,47 @@ public final class DiskLruCache implements Closeable {
             journalWriter.close();
         }
 
-        Writer writer = new BufferedWriter(new FileWriter(journalFileTmp), IO_BUFFER_SIZE);
-        writer.write(MAGIC);
-        writer.write("\n");
-        writer.write(VERSION_1);
-        writer.write("\n");
-        writer.write(Integer.toString(appVersion));
-        writer.write("\n");
-        writer.write(Integer.toString(valueCount));
-        writer.write("\n");
-        writer.write("\n");
+        DataOutputStream writer = newJournalWriter(journalFileTmp, false);
+        writer.writeInt(MAGIC);
+        writer.writeInt(VERSION_2);
+        writer.writeInt(appVersion);
+        writer.writeInt(valueCount);
 
         for (Entry entry : lruEntries.values()) {
             if (entry.currentEditor != null) {
-                writer.write(DIRTY + ' ' + entry.key + '\n');
+                writeJournalRecord(writer, DIRTY, entry.key, null);
             } else {
-                writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+                writeJournalRecord(writer, CLEAN, entry.key, entry.lengths);
             }
         }
 
         writer.close();
         journalFileTmp.renameTo(journalFile);
-        journalWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+        journalWriter = newJournalWriter(journalFile, true);
+    }
+
+    private static DataOutputStream newJournalWriter(File file, boolean append)
+            throws FileNotFoundException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append),
+                IO_BUFFER_SIZE));
+    }
+
+    /**
+     * Writes a journal record.
+     *
+     * @param lengths The lengths of the values of a CLEAN record, otherwise null
+     */
+    private static void writeJournalRecord(DataOutputStream writer, byte state, String key,
+                                           long[] lengths) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        writer.writeByte(state);
+        writer.writeShort(keyBytes.length);
+        writer.write(keyBytes);
+        if (lengths != null) {
+            for (long length : lengths) {
+                writer.writeLong(length);
+            }
+        }
     }
 
     private static void deleteIfExists(File file) throws IOException {
@@ -491,7 +474,7 @@ public final class DiskLruCache implements Closeable {
          * snapshot. If we opened streams lazily then the streams could come
          * from different edits.
          */
-        InputStream[] ins = new InputStream[valueCount];
+        FileInputStream[] ins = new FileInputStream[valueCount];
         try {
             for (int i = 0; i < valueCount; i++) {
                 ins[i] = new FileInputStream(entry.getCleanFile(i));
@@ -502,7 +485,7 @@ public final class DiskLruCache implements Closeable {
         }
 
         redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
+        writeJournalRecord(journalWriter, READ, key, null);
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
@@ -537,7 +520,7 @@ public final class DiskLruCache implements Closeable {
         entry.currentEditor = editor;
 
         // flush the journal before creating files to prevent file leaks
-        journalWriter.write(DIRTY + ' ' + key + '\n');
+        writeJournalRecord(journalWriter, DIRTY, key, null);
         journalWriter.flush();
         return editor;
     }
@@ -602,13 +585,13 @@ public final class DiskLruCache implements Closeable {
         entry.currentEditor = null;
         if (entry.readable | success) {
             entry.readable = true;
-            journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+            writeJournalRecord(journalWriter, CLEAN, entry.key, entry.lengths);
             if (success) {
                 entry.sequenceNumber = nextSequenceNumber++;
             }
         } else {
             lruEntries.remove(entry.key);
-            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+            writeJournalRecord(journalWriter, REMOVE, entry.key, null);
         }
 
         if (size > maxSize || journalRebuildRequired()) {
@@ -650,7 +633,7 @@ public final class DiskLruCache implements Closeable {
         }
 
         redundantOpCount++;
-        journalWriter.append(REMOVE + ' ' + key + '\n');
+        writeJournalRecord(journalWriter, REMOVE, key, null);
         lruEntries.remove(key);
 
         if (journalRebuildRequired()) {
@@ -735,9 +718,9 @@ public final class DiskLruCache implements Closeable {
     public final class Snapshot implements Closeable {
         private final String key;
         private final long sequenceNumber;
-        private final InputStream[] ins;
+        private final FileInputStream[] ins;
 
-        private Snapshot(String key, long sequenceNumber, InputStream[] ins) {
+        private Snapshot(String key, long sequenceNumber, FileInputStream[] ins) {
             this.key = key;
             this.sequenceNumber = sequenceNumber;
             this.ins = ins;
@@ -766,6 +749,26 @@ public final class DiskLruCache implements Closeable {
             return inputStreamToString(getInputStream(index));
         }
 
+        /**
+         * Returns the value for {@code index}, read into an array of the
+         * exact size without intermediate copies.
+         */
+        public byte[] getBytes(int index) throws IOException {
+            FileChannel channel = ins[index].getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("value " + index + " is too large: " + size);
+            }
+            byte[] bytes = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    throw new IOException("value " + index + " is truncated");
+                }
+            }
+            return bytes;
+        }
+
         @Override
         public void close() {
             for (InputStream in : ins) {
@@ -919,35 +922,6 @@ public final class DiskLruCache implements Closeable {
             this.lengths = new long[valueCount];
         }
 
-        public String getLengths() throws IOException {
-            StringBuilder result = new StringBuilder();
-            for (long size : lengths) {
-                result.append(' ').append(size);
-            }
-            return result.toString();
-        }
-
-        /**
-         * Set lengths using decimal numbers like "10123".
-         */
-        private void setLengths(String[] strings) throws IOException {
-            if (strings.length != valueCount) {
-                throw invalidLengths(strings);
-            }
-
-            try {
-                for (int i = 0; i < strings.length; i++) {
-                    lengths[i] = Long.parseLong(strings[i]);
-                }
-            } catch (NumberFormatException e) {
-                throw invalidLengths(strings);
-            }
-        }
-
-        private IOException invalidLengths(String[] strings) throws IOException {
-            throw new IOException("unexpected journal line: " + Arrays.toString(strings));
-        }
-
         public File getCleanFile(int i) {
             return new File(directory, key + "." + i);
         }
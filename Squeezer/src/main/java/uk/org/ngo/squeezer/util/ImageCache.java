@@ -29,7 +29,6 @@ import android.util.Log;
 
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
-import com.google.common.io.ByteStreams;
 
 import java.io.File;
 import java.io.IOException;
@@ -61,6 +60,20 @@ public class ImageCache {
 
     private static final int DISK_CACHE_INDEX = 0;
 
+    /** Index of the metadata of an entry, e.g. HTTP validators, an empty string if none. */
+    private static final int DISK_CACHE_METADATA_INDEX = 1;
+
+    private static final int DISK_CACHE_VALUE_COUNT = 2;
+
+    /** Version of the disk cache format, a new version clears existing caches. */
+    private static final int DISK_CACHE_VERSION = 2;
+
+    /**
+     * Sizes in pixels of the thumbnails saved in the disk cache, so list and grid artwork can be
+     * decoded without scaling down the original image. Larger images are decoded from the original.
+     */
+    private static final int[] THUMBNAIL_SIZES = {160, 400};
+
     // Constants to easily toggle various caches
     private static final boolean DEFAULT_MEM_CACHE_ENABLED = true;
 
@@ -181,7 +194,7 @@ public class ImageCache {
 
                     if (usableSpace > diskCacheSize) {
                         try {
-                            mDiskLruCache = DiskLruCache.open(diskCacheDir, 1, 1, diskCacheSize);
+                            mDiskLruCache = DiskLruCache.open(diskCacheDir, DISK_CACHE_VERSION, DISK_CACHE_VALUE_COUNT, diskCacheSize);
                             if (BuildConfig.DEBUG) {
                                 Log.d(TAG, "Disk cache initialized in " + diskCacheDir);
                             }
@@ -253,6 +266,7 @@ public class ImageCache {
                             out = editor.newOutputStream(DISK_CACHE_INDEX);
                             bitmap.compress(
                                     mCacheParams.compressFormat, mCacheParams.compressQuality, out);
+                            editor.set(DISK_CACHE_METADATA_INDEX, "");
                             editor.commit();
                             out.close();
                         }
@@ -275,6 +289,58 @@ public class ImageCache {
         }
     }
 
+    /**
+     * Adds a thumbnail of an image to the disk cache, scaled down to fit in a square of the given
+     * size. Images with transparency are saved as PNG, so it is preserved.
+     *
+     * @param data Unique identifier for the original image
+     * @param thumbnailSize Size of the thumbnail, see {@link #getThumbnailSize(int, int)}
+     * @param bitmap The image, at least as large as the thumbnail when possible
+     */
+    public void addThumbnailToDiskCache(String data, int thumbnailSize, Bitmap bitmap) {
+        if (data == null || bitmap == null) {
+            return;
+        }
+
+        Bitmap thumbnail = bitmap;
+        float scale = (float) thumbnailSize / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1) {
+            thumbnail = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        }
+
+        synchronized (mDiskCacheLock) {
+            if (mDiskLruCache != null) {
+                final String key = hashKeyForDisk(getThumbnailKey(data, thumbnailSize));
+                OutputStream out = null;
+                try {
+                    final DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+                    if (editor != null) {
+                        out = editor.newOutputStream(DISK_CACHE_INDEX);
+                        thumbnail.compress(thumbnail.hasAlpha() ? CompressFormat.PNG : mCacheParams.compressFormat,
+                                mCacheParams.compressQuality, out);
+                        editor.set(DISK_CACHE_METADATA_INDEX, "");
+                        editor.commit();
+                        out.close();
+                    }
+                } catch (final IOException e) {
+                    Log.e(TAG, "addThumbnailToDiskCache - " + e);
+                } finally {
+                    try {
+                        if (out != null) {
+                            out.close();
+                        }
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+
+        if (thumbnail != bitmap) {
+            thumbnail.recycle();
+        }
+    }
+
     /**
      * Adds a byte[] to the disk cache.
      *
@@ -298,6 +364,7 @@ public class ImageCache {
                         if (editor != null) {
                             out = editor.newOutputStream(DISK_CACHE_INDEX);
                             out.write(bytes);
+                            editor.set(DISK_CACHE_METADATA_INDEX, "");
                             editor.commit();
                             out.close();
                         }
@@ -320,6 +387,114 @@ public class ImageCache {
         }
     }
 
+    /**
+     * Adds a byte[] to the disk cache, replacing any existing entry and its thumbnails.
+     *
+     * @param data Unique identifier for the bitmap to store
+     * @param bytes The bytes to store
+     * @param metadata Information about the bytes, e.g. how to revalidate them
+     */
+    public void putBytesInDiskCache(String data, byte[] bytes, String metadata) {
+        if (data == null || bytes.length == 0) {
+            return;
+        }
+
+        synchronized (mDiskCacheLock) {
+            if (mDiskLruCache != null) {
+                OutputStream out = null;
+                try {
+                    for (int thumbnailSize : THUMBNAIL_SIZES) {
+                        mDiskLruCache.remove(hashKeyForDisk(getThumbnailKey(data, thumbnailSize)));
+                    }
+                    final DiskLruCache.Editor editor = mDiskLruCache.edit(hashKeyForDisk(data));
+                    if (editor != null) {
+                        out = editor.newOutputStream(DISK_CACHE_INDEX);
+                        out.write(bytes);
+                        editor.set(DISK_CACHE_METADATA_INDEX, metadata);
+                        editor.commit();
+                        out.close();
+                    }
+                } catch (final IOException e) {
+                    Log.e(TAG, "putBytesInDiskCache - " + e);
+                } finally {
+                    try {
+                        if (out != null) {
+                            out.close();
+                        }
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the metadata of an entry in the disk cache, keeping its bytes.
+     *
+     * @param data Unique identifier for the bitmap
+     * @param metadata Information about the bytes, e.g. how to revalidate them
+     *
+     * @return Whether the metadata was stored, false if the entry is not in the cache
+     */
+    public boolean putMetadataInDiskCache(String data, String metadata) {
+        synchronized (mDiskCacheLock) {
+            if (mDiskLruCache != null) {
+                try {
+                    // Edit through a snapshot, so an entry which has been evicted is not recreated
+                    // without its image
+                    final DiskLruCache.Snapshot snapshot = mDiskLruCache.get(hashKeyForDisk(data));
+                    if (snapshot != null) {
+                        snapshot.close();
+                        final DiskLruCache.Editor editor = snapshot.edit();
+                        if (editor != null) {
+                            editor.set(DISK_CACHE_METADATA_INDEX, metadata);
+                            editor.commit();
+                            return true;
+                        }
+                    }
+                } catch (final IOException e) {
+                    Log.e(TAG, "putMetadataInDiskCache - " + e);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Get the metadata of an entry from the disk cache.
+     *
+     * @param data Unique identifier for which item to get
+     *
+     * @return The metadata of the entry, which may be empty, or null if it's not in the cache
+     */
+    @Nullable
+    public String getMetadataFromDiskCache(String data) {
+        final String key = hashKeyForDisk(data);
+        synchronized (mDiskCacheLock) {
+            while (mDiskCacheStarting) {
+                try {
+                    mDiskCacheLock.wait();
+                } catch (InterruptedException e) {
+                }
+            }
+            if (mDiskLruCache != null) {
+                try {
+                    final DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
+                    if (snapshot != null) {
+                        try {
+                            return snapshot.getString(DISK_CACHE_METADATA_INDEX);
+                        } finally {
+                            snapshot.close();
+                        }
+                    }
+                } catch (final IOException e) {
+                    Log.e(TAG, "getMetadataFromDiskCache - " + e);
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * Get from memory cache.
      *
@@ -412,26 +587,20 @@ public class ImageCache {
                 }
             }
             if (mDiskLruCache != null) {
-                InputStream inputStream = null;
+                DiskLruCache.Snapshot snapshot = null;
                 try {
-                    final DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
+                    snapshot = mDiskLruCache.get(key);
                     if (snapshot != null) {
                         if (BuildConfig.DEBUG) {
                             Log.d(TAG, "Disk cache hit");
                         }
-                        inputStream = snapshot.getInputStream(DISK_CACHE_INDEX);
-                        if (inputStream != null) {
-                            return ByteStreams.toByteArray(inputStream);
-                        }
+                        return snapshot.getBytes(DISK_CACHE_INDEX);
                     }
                 } catch (final IOException e) {
                     Log.e(TAG, "getBitmapFromDiskCache - " + e);
                 } finally {
-                    try {
-                        if (inputStream != null) {
-                            inputStream.close();
-                        }
-                    } catch (IOException e) {
+                    if (snapshot != null) {
+                        snapshot.close();
                     }
                 }
             }
@@ -590,6 +759,27 @@ public class ImageCache {
         return new File(cachePath + File.separator + uniqueName);
     }
 
+    /**
+     * @return The size of the thumbnails to use for images of the given size, or 0 if the image
+     *     should be decoded from the original.
+     */
+    public static int getThumbnailSize(int width, int height) {
+        int size = Math.max(width, height);
+        for (int thumbnailSize : THUMBNAIL_SIZES) {
+            if (size <= thumbnailSize) {
+                return thumbnailSize;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The identifier in the disk cache of a thumbnail of the given image.
+     */
+    public static String getThumbnailKey(String data, int thumbnailSize) {
+        return "thumbnail:" + thumbnailSize + ":" + data;
+    }
+
     /**
      * A hashing method that changes a string (like a URL) into a hash suitable for using as a disk
      * filename.  The hashing method is MD5.
@@ -30,6 +30,9 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
@@ -43,6 +46,20 @@ public class ImageFetcher extends ImageWorker {
 
     private volatile static ImageFetcher sImageFetcher;
 
+    /**
+     * Sizes in pixels we ask the server to resize artwork to. Requests are rounded up to one of
+     * these, so artwork for views of similar size are shared in the caches. The smaller sizes
+     * match the thumbnail sizes of {@link ImageCache}. Larger requests get the original image.
+     */
+    private static final int[] SERVER_RESIZE_SIZES = {160, 400, 800};
+
+    /**
+     * Artwork from the server which can be resized, like <code>/music/&lt;id&gt;/cover.jpg</code>
+     * and <code>/imageproxy/&lt;url&gt;/image.png</code>, split in the path up to the name and
+     * the optional extension.
+     */
+    private static final Pattern sResizablePattern = Pattern.compile("^(.*/(?:music/[^/?]+/cover|imageproxy/[^?]+/image))(\\.[a-zA-Z]+)?$");
+
     private ImageFetcher(Context context) {
         super(context);
     }
@@ -82,9 +99,144 @@ public class ImageFetcher extends ImageWorker {
         sImageFetcher.clearMemoryCache();
     }
 
+    /**
+     * Ask the server for artwork at the requested size, by adding <code>_WxH_o</code> to the
+     * name, instead of downloading the original, which may be a lot larger, and scaling it down
+     * on the device.
+     */
+    @NonNull
+    @Override
+    protected Object getSizedData(@NonNull Object data, int width, int height) {
+        int size = Math.max(width, height);
+        if (size <= 0) {
+            return data;
+        }
+        for (int resizeSize : SERVER_RESIZE_SIZES) {
+            if (size <= resizeSize) {
+                Matcher matcher = sResizablePattern.matcher(data.toString());
+                if (matcher.matches()) {
+                    String extension = (matcher.group(2) != null ? matcher.group(2) : "");
+                    return matcher.group(1) + "_" + resizeSize + "x" + resizeSize + "_o" + extension;
+                }
+                break;
+            }
+        }
+        return data;
+    }
+
+    /** Maximum number of concurrent downloads from a host. */
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+    /** How long a cached image is used before it is revalidated, if the server doesn't say. */
+    private static final long DEFAULT_MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+    /** Limits the concurrent downloads from each host. */
+    private final Map<String, Semaphore> mHostPermits = new HashMap<>();
+
+    /**
+     * Information stored with an image in the disk cache, to decide when and how to revalidate
+     * it.
+     */
+    private static class CacheMetadata {
+        /** Time the image was fetched or revalidated, in ms. */
+        final long fetchTime;
+
+        /** How long the image may be used without revalidation, in ms. */
+        final long maxAge;
+
+        @Nullable
+        final String eTag;
+
+        @Nullable
+        final String lastModified;
+
+        CacheMetadata(long fetchTime, long maxAge, @Nullable String eTag, @Nullable String lastModified) {
+            this.fetchTime = fetchTime;
+            this.maxAge = maxAge;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        /** Metadata from the headers of a response received now. */
+        static CacheMetadata fromResponse(HttpURLConnection connection) {
+            long maxAge = DEFAULT_MAX_AGE;
+            String cacheControl = connection.getHeaderField("Cache-Control");
+            if (cacheControl != null) {
+                Matcher matcher = sMaxAgePattern.matcher(cacheControl);
+                if (matcher.find()) {
+                    maxAge = Long.parseLong(matcher.group(1)) * 1000;
+                }
+            }
+            return new CacheMetadata(System.currentTimeMillis(), maxAge,
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        }
+
+        /**
+         * @return The metadata stored by {@link #toString()}, or null if there is none (e.g.
+         *     images cached before metadata was stored).
+         */
+        @Nullable
+        static CacheMetadata parse(@Nullable String metadata) {
+            if (metadata == null || metadata.isEmpty()) {
+                return null;
+            }
+            String[] fields = metadata.split("\n", -1);
+            if (fields.length != 4) {
+                return null;
+            }
+            try {
+                return new CacheMetadata(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        fields[2].isEmpty() ? null : fields[2], fields[3].isEmpty() ? null : fields[3]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * A response to a conditional request may leave out the validators, so keep the ones
+         * we had.
+         */
+        CacheMetadata withValidators(@Nullable CacheMetadata previous) {
+            if (previous == null) {
+                return this;
+            }
+            return new CacheMetadata(fetchTime, maxAge, eTag != null ? eTag : previous.eTag,
+                    lastModified != null ? lastModified : previous.lastModified);
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() - fetchTime > maxAge;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return fetchTime + "\n" + maxAge + "\n" + (eTag != null ? eTag : "") + "\n" + (lastModified != null ? lastModified : "");
+        }
+    }
+
+    private static final Pattern sMaxAgePattern = Pattern.compile("max-age=(\\d+)");
+
+    /**
+     * Images without metadata, e.g. cached before we stored it, are used without revalidation.
+     */
+    @Override
+    protected boolean isStale(@NonNull String data) {
+        ImageCache imageCache = getImageCache();
+        if (imageCache == null) {
+            return false;
+        }
+        CacheMetadata metadata = CacheMetadata.parse(imageCache.getMetadataFromDiskCache(data));
+        return metadata != null && metadata.isStale();
+    }
+
     /**
      * The main process method, which will be called by the ImageWorker in the AsyncTask background
      * thread.
+     * <p>
+     * If the image is in the disk cache it is revalidated with a conditional request, so an
+     * unchanged image is not downloaded again. Downloaded images are stored in the disk cache
+     * with the validators of the response.
      *
      * @param params The parameters for this request.
      *
@@ -92,11 +244,15 @@ public class ImageFetcher extends ImageWorker {
      */
     @Nullable
     protected byte[] processBitmap(BitmapWorkerTaskParams params) {
-        String data = params.data.toString();
+        final String cacheKey = params.data.toString();
+        String data = cacheKey;
         Log.d(TAG, "processBitmap: " + data);
 
+        ImageCache imageCache = getImageCache();
+        CacheMetadata cached = (imageCache != null ? CacheMetadata.parse(imageCache.getMetadataFromDiskCache(cacheKey)) : null);
+
         HttpURLConnection urlConnection = null;
-        InputStream in = null;
+        Semaphore permit = null;
         byte[] bytes = null;
 
         try {
@@ -116,11 +272,24 @@ public class ImageFetcher extends ImageWorker {
                     throw new IOException("Stuck in redirect loop");
 
                 resourceUrl = new URL(data);
+                if (permit != null) {
+                    permit.release();
+                }
+                permit = getHostPermit(resourceUrl);
+                permit.acquire();
                 urlConnection = (HttpURLConnection) resourceUrl.openConnection();
 
                 urlConnection.setConnectTimeout(15000);
                 urlConnection.setReadTimeout(15000);
                 urlConnection.setInstanceFollowRedirects(false);   // Make the logic below easier to detect redirections
+                if (cached != null) {
+                    if (cached.eTag != null) {
+                        urlConnection.setRequestProperty("If-None-Match", cached.eTag);
+                    }
+                    if (cached.lastModified != null) {
+                        urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                    }
+                }
 
                 switch (urlConnection.getResponseCode())
                 {
@@ -131,29 +300,90 @@ public class ImageFetcher extends ImageWorker {
                         base     = new URL(data);
                         next     = new URL(base, location);  // Deal with relative URLs
                         data      = next.toExternalForm();
+                        discardResponse(urlConnection);
                         continue;
+
+                    case HttpURLConnection.HTTP_NOT_MODIFIED:
+                        if (cached == null) {
+                            break;
+                        }
+                        discardResponse(urlConnection);
+                        if (imageCache.putMetadataInDiskCache(cacheKey, CacheMetadata.fromResponse(urlConnection).withValidators(cached).toString())) {
+                            bytes = imageCache.getBytesFromDiskCache(cacheKey);
+                        }
+                        if (bytes == null) {
+                            // Evicted since we read the validators, so fetch it again unconditionally
+                            cached = null;
+                            continue;
+                        }
                 }
 
                 break;
             }
 
-            in = urlConnection.getInputStream();
-            bytes = ByteStreams.toByteArray(in);
+            if (bytes == null) {
+                InputStream in = urlConnection.getInputStream();
+                try {
+                    bytes = ByteStreams.toByteArray(in);
+                } finally {
+                    in.close();
+                }
+                if (imageCache != null && bytes.length != 0) {
+                    imageCache.putBytesInDiskCache(cacheKey, bytes, CacheMetadata.fromResponse(urlConnection).toString());
+                }
+            }
         } catch (final IOException e) {
             Log.e(TAG, "Error in downloadUrlToStream - " + data + e);
-        } finally {
             if (urlConnection != null) {
-                urlConnection.disconnect();
+                discardResponse(urlConnection);
             }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Interrupted waiting to download " + data);
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+        }
+
+        // Better a stale image than none, e.g. when the server can't be reached
+        if (bytes == null && cached != null) {
+            bytes = imageCache.getBytesFromDiskCache(cacheKey);
+        }
+
+        return bytes;
+    }
+
+    private Semaphore getHostPermit(URL url) {
+        synchronized (mHostPermits) {
+            Semaphore permit = mHostPermits.get(url.getAuthority());
+            if (permit == null) {
+                permit = new Semaphore(MAX_CONNECTIONS_PER_HOST);
+                mHostPermits.put(url.getAuthority(), permit);
+            }
+            return permit;
+        }
+    }
+
+    /**
+     * Read the rest of a response we don't need, so the connection can be reused.
+     */
+    private static void discardResponse(HttpURLConnection connection) {
+        InputStream in = connection.getErrorStream();
+        try {
+            if (in == null) {
+                in = connection.getInputStream();
+            }
+            ByteStreams.exhaust(in);
+        } catch (IOException e) {
+            // The connection will not be reused
+        } finally {
             try {
                 if (in != null) {
                     in.close();
                 }
-            } catch (final IOException e) {
+            } catch (IOException e) {
                 Log.e(TAG, "Closing input stream failed");
             }
         }
-
-        return bytes;
     }
 }
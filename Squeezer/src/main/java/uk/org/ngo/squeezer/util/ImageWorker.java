@@ -38,11 +38,13 @@ import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.RemoteViews;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 
@@ -52,6 +54,11 @@ import uk.org.ngo.squeezer.BuildConfig;
  * This class wraps up completing some arbitrary long running work when loading a bitmap to an
  * ImageView. It handles things like using a memory and disk cache, running the work in a background
  * thread and setting a placeholder image.
+ * <p>
+ * Images are fetched (from the disk cache or by {@link #processBitmap(BitmapWorkerTaskParams)}) on
+ * a pool of I/O threads, and decoded on a smaller pool of decode threads. Concurrent requests for
+ * the same image share the fetch, and the decode if they want the same size. Images which are
+ * needed now are loaded before images which are prefetched.
  */
 public abstract class ImageWorker {
 
@@ -83,6 +90,32 @@ public abstract class ImageWorker {
     private static final int MESSAGE_CLOSE = 3;
     private static final int MESSAGE_CLEAR_MEMORY_CACHE = 4;
 
+    @IntDef({LANE_VISIBLE, LANE_PREFETCH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Lane {}
+    /** Images which are needed now. */
+    private static final int LANE_VISIBLE = 0;
+    /** Images which may be needed soon. */
+    private static final int LANE_PREFETCH = 1;
+
+    /** Threads for reading the disk cache and the network, which spend most of the time waiting. */
+    private static final PriorityLaneExecutor sIoExecutor = new PriorityLaneExecutor("ImageWorker I/O", 4, 2, true);
+
+    /** Threads for decoding, bounded because it uses CPU and memory. */
+    private static final PriorityLaneExecutor sDecodeExecutor = new PriorityLaneExecutor("ImageWorker decode", 2, 2, false);
+
+    /**
+     * Threads for the fetches shared by the requests for an image. They are separate from the
+     * requests, which may be cancelled while others wait for the same image.
+     */
+    private static final PriorityLaneExecutor sFetchExecutor = new PriorityLaneExecutor("ImageWorker fetch", 4, 2, true);
+
+    /** Fetches in progress, by image URL. */
+    private final SharedWork<FetchResult> mFetches = new SharedWork<>();
+
+    /** Decodes in progress, by memory cache key. */
+    private final SharedWork<Bitmap> mDecodes = new SharedWork<>();
+
     /** Joiner for the components that make up a key in the memory cache. */
     protected static final Joiner mMemCacheKeyJoiner = Joiner.on(':');
 
@@ -180,8 +213,7 @@ public abstract class ImageWorker {
             // NOTE: This uses a custom version of AsyncTask that has been pulled from the
             // framework and slightly modified. Refer to the docs at the top of the class
             // for more info on what was changed.
-            task.executeOnExecutor(AsyncTask.DUAL_THREAD_EXECUTOR,
-                    new BitmapWorkerTaskParams(width, height, data, memCacheKey));
+            task.executeInLane(LANE_VISIBLE, new BitmapWorkerTaskParams(width, height, data, memCacheKey));
         }
     }
 
@@ -224,11 +256,32 @@ public abstract class ImageWorker {
         } else {
             final CallbackBitmapWorkerTask task = new CallbackBitmapWorkerTask(callback);
 
-            task.executeOnExecutor(AsyncTask.DUAL_THREAD_EXECUTOR,
-                    new BitmapWorkerTaskParams(width, height, data, memCacheKey));
+            task.executeInLane(LANE_VISIBLE, new BitmapWorkerTaskParams(width, height, data, memCacheKey));
         }
     }
 
+    /**
+     * Load an image in to the caches, so it is ready if it is needed later. This is done when
+     * no images are waiting to be shown.
+     *
+     * @param data The URL of the image to download
+     * @param width Resize the image to this width (and save it in the memory cache as such)
+     * @param height Resize the image to this height (and save it in the memory cache as such)
+     */
+    public void prefetchImage(final Object data, int width, int height) {
+        String memCacheKey = hashKeyForMemory(String.valueOf(data), width, height);
+        if (mImageCache != null && mImageCache.getBitmapFromMemCache(memCacheKey) != null) {
+            return;
+        }
+
+        final CallbackBitmapWorkerTask task = new CallbackBitmapWorkerTask(new ImageWorkerCallback() {
+            @Override
+            public void process(Object data, @Nullable Bitmap bitmap) {
+            }
+        });
+        task.executeInLane(LANE_PREFETCH, new BitmapWorkerTaskParams(width, height, data, memCacheKey));
+    }
+
     /**
      * Loads the requested image in to an {@link ImageView} in the given {@link RemoteViews}
      * and updates the notification when done.
@@ -268,8 +321,7 @@ public abstract class ImageWorker {
             // NOTE: This uses a custom version of AsyncTask that has been pulled from the
             // framework and slightly modified. Refer to the docs at the top of the class
             // for more info on what was changed.
-            task.executeOnExecutor(AsyncTask.DUAL_THREAD_EXECUTOR,
-                    new BitmapWorkerTaskParams(width, height, data, memCacheKey));
+            task.executeInLane(LANE_VISIBLE, new BitmapWorkerTaskParams(width, height, data, memCacheKey));
         }
     }
 
@@ -283,7 +335,8 @@ public abstract class ImageWorker {
      * @return Cache key to use.
      */
     @NonNull
-    private static String hashKeyForMemory(@NonNull String data, int width, int height) {
+    @VisibleForTesting
+    static String hashKeyForMemory(@NonNull String data, int width, int height) {
         return mMemCacheKeyJoiner.join(width, height, data);
     }
 
@@ -356,6 +409,11 @@ public abstract class ImageWorker {
         mImageCache = imageCache;
     }
 
+    @Nullable
+    protected ImageCache getImageCache() {
+        return mImageCache;
+    }
+
     /**
      * If set to true, the image will fade-in once it has been loaded by the background thread.
      */
@@ -373,6 +431,34 @@ public abstract class ImageWorker {
         mExitTasksEarly = exitTasksEarly;
     }
 
+    /**
+     * Subclasses may override this to fetch a different image depending on the requested size,
+     * e.g. one that is resized by the server. The returned value identifies the image in the disk
+     * cache, and is passed to {@link #processBitmap(BitmapWorkerTaskParams)}.
+     *
+     * @param data The identifier for the image, as provided to {@link #loadImage(Object, ImageView)}
+     * @param width Desired bitmap width
+     * @param height Desired bitmap height
+     *
+     * @return The identifier of the image to fetch. By default the data itself.
+     */
+    @NonNull
+    protected Object getSizedData(@NonNull Object data, int width, int height) {
+        return data;
+    }
+
+    /**
+     * Subclasses may override this to have images in the disk cache fetched again by
+     * {@link #processBitmap(BitmapWorkerTaskParams)}, e.g. when they may have changed.
+     *
+     * @param data The identifier of the image in the disk cache
+     *
+     * @return Whether the cached image must be revalidated. By default false.
+     */
+    protected boolean isStale(@NonNull String data) {
+        return false;
+    }
+
     /**
      * Subclasses should override this to define any processing or work that must happen to produce
      * the final bitmap. This will be executed in a background thread and be long running. For
@@ -482,6 +568,21 @@ public abstract class ImageWorker {
         }
     }
 
+    /** The undecoded bytes of an image, and where they came from. */
+    private static class FetchResult {
+        final byte[] bytes;
+        final boolean loadedFromNetwork;
+
+        /** Size of the thumbnail the bytes are, or 0 if they are the original image. */
+        final int thumbnailSize;
+
+        FetchResult(byte[] bytes, boolean loadedFromNetwork, int thumbnailSize) {
+            this.bytes = bytes;
+            this.loadedFromNetwork = loadedFromNetwork;
+            this.thumbnailSize = thumbnailSize;
+        }
+    }
+
     /**
      * The actual AsyncTask that will asynchronously process the image.
      */
@@ -489,6 +590,15 @@ public abstract class ImageWorker {
         protected static final String TAG = "BitmapWorkerTask";
         protected Object data;
 
+        @Lane
+        private int lane;
+
+        /** Run the task in the given lane of the I/O threads. */
+        void executeInLane(@Lane int lane, BitmapWorkerTaskParams params) {
+            this.lane = lane;
+            executeOnExecutor(sIoExecutor.lane(lane), params);
+        }
+
         /**
          * Background processing.
          */
@@ -498,11 +608,13 @@ public abstract class ImageWorker {
                 Log.d(TAG, "doInBackground - starting work");
             }
 
-            boolean loadedFromNetwork = false;
-
             data = params[0].data;
-            final String dataString = String.valueOf(data);
-            byte[] bytes = null;
+
+            // The image to fetch and cache may depend on the requested size
+            Object sizedData = getSizedData(params[0].data, params[0].width, params[0].height);
+            final BitmapWorkerTaskParams taskParams = (sizedData.equals(params[0].data) ? params[0]
+                    : new BitmapWorkerTaskParams(params[0].width, params[0].height, sizedData, params[0].memCacheKey));
+            final String dataString = String.valueOf(taskParams.data);
             Bitmap scaledBitmap = null;
 
             // Wait here if work is paused and the task is not cancelled
@@ -515,67 +627,150 @@ public abstract class ImageWorker {
                 }
             }
 
-            // If the image cache is available and this task has not been cancelled by another
-            // thread and there's nothing to indicate this task should cancel then try and fetch
-            // the bitmap bytes from the cache.
-            if (mImageCache != null && !isCancelled() && !shouldCancel()) {
+            if (isCancelled() || shouldCancel()) {
+                return null;
+            }
+
+            try {
+                // Use a pre-scaled thumbnail if we have one for this size. Otherwise get the
+                // original bytes, sharing the fetch with any other requests for this image.
+                final boolean stale = (mImageCache != null && isStale(dataString));
+                FetchResult thumbnail = (stale ? null : getThumbnail(taskParams, dataString));
+                final FetchResult fetched = (thumbnail != null ? thumbnail : mFetches.get(dataString, new Callable<FetchResult>() {
+                    @Override
+                    public FetchResult call() {
+                        return fetch(taskParams, dataString, stale);
+                    }
+                }, sFetchExecutor.lane(lane)));
+
+                // Create a bitmap from the bytes, scaled to the appropriate size, sharing the
+                // decode with other requests for this image at the same size.
+                if (fetched != null && !isCancelled() && taskParams.width > 0 && taskParams.height > 0) {
+                    scaledBitmap = mDecodes.get(taskParams.memCacheKey, new Callable<Bitmap>() {
+                        @Override
+                        public Bitmap call() {
+                            return decode(taskParams, fetched);
+                        }
+                    }, sDecodeExecutor.lane(lane));
+                }
+            } catch (InterruptedException e) {
+                // Cancelled while waiting for a fetch or decode
+                return null;
+            }
+
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "doInBackground - finished work");
+            }
+
+            return scaledBitmap;
+        }
+
+        /**
+         * @return The thumbnail for the requested size from the disk cache, or null if the
+         *     requested size does not use thumbnails or the thumbnail is not in the cache.
+         */
+        @Nullable
+        private FetchResult getThumbnail(BitmapWorkerTaskParams params, String dataString) {
+            int thumbnailSize = ImageCache.getThumbnailSize(params.width, params.height);
+            if (thumbnailSize > 0 && mImageCache != null) {
+                byte[] bytes = mImageCache.getBytesFromDiskCache(ImageCache.getThumbnailKey(dataString, thumbnailSize));
+                if (bytes != null && bytes.length != 0) {
+                    return new FetchResult(bytes, false, thumbnailSize);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param stale Whether the image in the disk cache must be revalidated, see
+         *     {@link #isStale(String)}
+         * @return The bytes of the image from the disk cache, or if not found from
+         *     {@link #processBitmap(BitmapWorkerTaskParams)}, or null if the image could not be
+         *     loaded.
+         */
+        @Nullable
+        private FetchResult fetch(BitmapWorkerTaskParams params, String dataString, boolean stale) {
+            byte[] bytes = null;
+
+            // If the image cache is available then try and fetch the bitmap bytes from the cache.
+            if (mImageCache != null && !stale) {
                 bytes = mImageCache.getBytesFromDiskCache(dataString);
+                if (bytes != null && bytes.length != 0) {
+                    return new FetchResult(bytes, false, 0);
+                }
             }
 
-            // If the bitmap was not found in the cache and this task has not been cancelled by
-            // another thread and there's nothing to indicate that this task should cancel, then
-            // call the main process method (as implemented by a subclass)
-            if ((bytes == null || bytes.length == 0) && !isCancelled() && !shouldCancel()) {
-                bytes = processBitmap(params[0]);
-                loadedFromNetwork = true;
+            // If the bitmap was not found in the cache or must be revalidated, then call the main
+            // process method (as implemented by a subclass)
+            bytes = processBitmap(params);
 
-                // If the bitmap bytes were loaded then add them to the disk cache.
-                if (bytes != null && bytes.length != 0 && mImageCache != null) {
+            // If the bitmap bytes were loaded then add them to the disk cache.
+            if (bytes != null && bytes.length != 0) {
+                if (mImageCache != null) {
                     mImageCache.addBytesToDiskCache(dataString, bytes);
                 }
+                return new FetchResult(bytes, true, 0);
             }
 
-            // Create a bitmap from the bytes, scaled to the appropriate size.
-            if (bytes != null && bytes.length != 0 && params[0].width > 0 && params[0].height > 0) {
-                BitmapFactory.Options options = new BitmapFactory.Options();
+            return null;
+        }
+
+        @Nullable
+        private Bitmap decode(BitmapWorkerTaskParams params, FetchResult fetched) {
+            // Another request may have decoded it while this one was waiting
+            if (mImageCache != null) {
+                Bitmap bitmap = mImageCache.getBitmapFromMemCache(params.memCacheKey);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            }
+
+            byte[] bytes = fetched.bytes;
+            int thumbnailSize = ImageCache.getThumbnailSize(params.width, params.height);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+
+            // A thumbnail is already about the right size
+            if (fetched.thumbnailSize == 0) {
                 options.inJustDecodeBounds = true;
                 BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
 
-                options.inSampleSize = calculateInSampleSize(
-                        options, params[0].width, params[0].height);
+                // Decode at the thumbnail size if we are going to save one, so it is good for
+                // any size that uses it.
+                options.inSampleSize = (thumbnailSize > 0
+                        ? calculateInSampleSize(options, thumbnailSize, thumbnailSize)
+                        : calculateInSampleSize(options, params.width, params.height));
 
                 options.inJustDecodeBounds = false;
-
-                if (! BuildConfig.DEBUG) {
-                    // Not a debug build, just need the scaled bitmap.
-                    scaledBitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
-                } else {
-                    // Debug build, need a mutable bitmap to add the debug swatch later.
-                    options.inMutable = true;
-                    scaledBitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
-                }
             }
 
-            // If the bitmap was processed and the image cache is available, then add the processed
-            // bitmap to the memory cache for future use. Note we don't check if the task was
-            // cancelled here, if it was, and the thread is still running, we may as well add the
-            // processed bitmap to our cache as it might be used again in the future.
-            if (scaledBitmap != null && mImageCache != null) {
-                mImageCache.addBitmapToMemoryCache(params[0].memCacheKey, scaledBitmap);
+            if (BuildConfig.DEBUG) {
+                // Debug build, need a mutable bitmap to add the debug swatch later.
+                options.inMutable = true;
             }
+            Bitmap scaledBitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
 
-            if (BuildConfig.DEBUG) {
-                Log.d(TAG, "doInBackground - finished work");
+            // Save a thumbnail, so the next time this size is requested it doesn't have to be
+            // scaled down from the original image.
+            if (scaledBitmap != null && mImageCache != null && fetched.thumbnailSize == 0 && thumbnailSize > 0) {
+                mImageCache.addThumbnailToDiskCache(String.valueOf(params.data), thumbnailSize, scaledBitmap);
             }
 
             if (BuildConfig.DEBUG && scaledBitmap != null) {
-                if (loadedFromNetwork) {
+                if (fetched.loadedFromNetwork) {
                     addDebugSwatch(new Canvas(scaledBitmap), mCacheDebugColorNetwork);
                 } else {
                     addDebugSwatch(new Canvas(scaledBitmap), mCacheDebugColorDisk);
                 }
+            }
 
+            // If the bitmap was processed and the image cache is available, then add the processed
+            // bitmap to the memory cache for future use. Note we don't check if the task was
+            // cancelled here, if it was, and the thread is still running, we may as well add the
+            // processed bitmap to our cache as it might be used again in the future.
+            if (scaledBitmap != null && mImageCache != null) {
+                mImageCache.addBitmapToMemoryCache(params.memCacheKey, scaledBitmap);
             }
+
             return scaledBitmap;
         }
 
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+
+import uk.org.ngo.squeezer.model.Player;
+import uk.org.ngo.squeezer.model.PlayerState;
+
+/**
+ * Tells a visible UI component when to show the progress of a playing song.
+ * <p>
+ * The server only reports the position in the song when something changes, so the position is
+ * extrapolated by {@link PlayerState#getTrackElapsed()}. The ticker samples it either on every
+ * display frame, for smooth animation, or whenever the position passes a whole second, for a
+ * time display. It stops when the player is not playing, and must be stopped when the component
+ * is no longer visible, so nothing is done in the background.
+ */
+@MainThread
+public class PlaybackTicker {
+
+    public interface Listener {
+        @UiThread
+        void onTick(@NonNull Player player, double trackElapsed);
+    }
+
+    public enum Rate {
+        /** Tick on every display frame. */
+        FRAME,
+        /** Tick when the position in the song passes a whole second. */
+        SECOND
+    }
+
+    private final Listener listener;
+
+    private final Rate rate;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    private Player player;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onTick();
+        }
+    };
+
+    public PlaybackTicker(@NonNull Rate rate, @NonNull Listener listener) {
+        this.rate = rate;
+        this.listener = listener;
+    }
+
+    /**
+     * Start ticking for the given player, if it is playing. Call this again when the status of
+     * the player changes, to align the ticks with the reported position.
+     */
+    public void start(@NonNull Player player) {
+        stop();
+        this.player = player;
+        schedule();
+    }
+
+    public void stop() {
+        handler.removeCallbacks(tick);
+        choreographer.removeFrameCallback(frameCallback);
+        player = null;
+    }
+
+    private void onTick() {
+        if (player != null) {
+            listener.onTick(player, player.getPlayerState().getTrackElapsed());
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        PlayerState playerState = player.getPlayerState();
+        if (!playerState.isPlaying()) {
+            return;
+        }
+
+        if (rate == Rate.FRAME) {
+            choreographer.postFrameCallback(frameCallback);
+        } else {
+            double elapsed = playerState.getTrackElapsed();
+            double speed = (playerState.rate > 0 ? playerState.rate : 1);
+            long delay = (long) Math.ceil((Math.floor(elapsed) + 1 - elapsed) * 1000 / speed);
+            handler.postDelayed(tick, delay + 1);
+        }
+    }
+}
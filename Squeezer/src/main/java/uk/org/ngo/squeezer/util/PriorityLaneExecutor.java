@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of threads which runs work from a number of lanes. When a thread is free it takes
+ * work from the first lane that has any, so work in the lower lanes only runs when there is
+ * nothing more urgent to do.
+ * <p>
+ * Within a lane, the most recently added work runs first when the lane is {@link #lifo}. E.g.
+ * the rows which just scrolled into view are more urgent than the ones which may already have
+ * scrolled out again.
+ */
+class PriorityLaneExecutor {
+    private final Deque<Runnable>[] lanes;
+
+    private final boolean lifo;
+
+    private final ThreadPoolExecutor pool;
+
+    private final Runnable runNext = new Runnable() {
+        @Override
+        public void run() {
+            Runnable next = poll();
+            if (next != null) {
+                next.run();
+            }
+        }
+    };
+
+    /**
+     * @param name Name of the threads
+     * @param threads The number of threads
+     * @param laneCount The number of lanes, lane 0 has the highest priority
+     * @param lifo Run the most recently added work in a lane first
+     */
+    @SuppressWarnings("unchecked")
+    PriorityLaneExecutor(final String name, int threads, int laneCount, boolean lifo) {
+        this.lifo = lifo;
+        lanes = new Deque[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, name + " #" + mCount.getAndIncrement());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /** @return An executor which adds work to the given lane. */
+    Executor lane(final int lane) {
+        return new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                PriorityLaneExecutor.this.execute(lane, command);
+            }
+        };
+    }
+
+    void execute(int lane, @NonNull Runnable command) {
+        synchronized (lanes) {
+            if (lifo) {
+                lanes[lane].addFirst(command);
+            } else {
+                lanes[lane].addLast(command);
+            }
+        }
+        // Each piece of work gets a turn on the pool, which runs the most urgent work at that time
+        pool.execute(runNext);
+    }
+
+    private Runnable poll() {
+        synchronized (lanes) {
+            for (Deque<Runnable> lane : lanes) {
+                Runnable next = lane.pollFirst();
+                if (next != null) {
+                    return next;
+                }
+            }
+            return null;
+        }
+    }
+}
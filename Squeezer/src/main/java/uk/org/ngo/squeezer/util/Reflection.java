@@ -19,6 +19,8 @@ package uk.org.ngo.squeezer.util;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Reflection utility methods
@@ -27,6 +29,12 @@ import java.lang.reflect.TypeVariable;
  */
 public class Reflection {
 
+    /**
+     * Resolved type arguments by base class or interface, by class. Classes don't change, so the
+     * types are resolved once, and looking them up again doesn't need reflection.
+     */
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, Type[]>> resolvedTypes = new ConcurrentHashMap<>();
+
     /**
      * <p>Return the actual type parameter of the supplied class for the type variable at the
      * supplied position in the supplied base class or interface. <p>The method returns null if the
@@ -44,7 +52,7 @@ public class Reflection {
      */
     public static Class<?> getGenericClass(Class<?> currentClass,
             Class<?> base, int genericArgumentNumber) {
-        Type[] genericTypes = genericTypeResolver(currentClass, base);
+        Type[] genericTypes = resolvedTypes(currentClass, base);
         Type type = genericArgumentNumber < genericTypes.length
                 ? genericTypes[genericArgumentNumber] : null;
 
@@ -74,6 +82,33 @@ public class Reflection {
      */
     public static Type[] genericTypeResolver(Class<?> currentClass,
             Class<?> base) {
+        return resolvedTypes(currentClass, base).clone();
+    }
+
+    /**
+     * @return The cached result of {@link #resolveTypes(Class, Class)}, which must not be
+     * modified.
+     */
+    private static Type[] resolvedTypes(Class<?> currentClass, Class<?> base) {
+        ConcurrentMap<Class<?>, Type[]> typesByBase = resolvedTypes.get(currentClass);
+        if (typesByBase == null) {
+            typesByBase = new ConcurrentHashMap<>();
+            ConcurrentMap<Class<?>, Type[]> existing = resolvedTypes.putIfAbsent(currentClass, typesByBase);
+            if (existing != null) {
+                typesByBase = existing;
+            }
+        }
+
+        Type[] types = typesByBase.get(base);
+        if (types == null) {
+            // Resolving the same types concurrently is harmless, they are equal
+            types = resolveTypes(currentClass, base);
+            typesByBase.put(base, types);
+        }
+        return types;
+    }
+
+    private static Type[] resolveTypes(Class<?> currentClass, Class<?> base) {
         Type[] actualTypeArguments = null;
 
         while (currentClass != Object.class) {
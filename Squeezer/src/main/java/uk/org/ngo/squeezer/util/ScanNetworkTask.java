@@ -7,6 +7,7 @@ import androidx.annotation.NonNull;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -14,17 +15,30 @@ import com.google.common.annotations.VisibleForTesting;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
 
+import uk.org.ngo.squeezer.BuildConfig;
+import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.R;
 
 /**
  * Scans the local network for servers.
+ * <p>
+ * Servers are reported through {@link ScanNetworkCallback#onServerFound(String, String)} as they
+ * answer, so the UI doesn't have to wait for the scan to finish.
  */
 public class ScanNetworkTask implements Runnable {
     private static final String TAG = ScanNetworkTask.class.getSimpleName();
@@ -40,6 +54,17 @@ public class ScanNetworkTask implements Runnable {
      */
     private final TreeMap<String, String> mServerMap = new TreeMap<>();
 
+    /**
+     * Hosts of the servers found by the most recent scan, which are probed directly by the next
+     * scan.
+     */
+    private static final Set<String> sLastKnownHosts = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    /**
+     * Hosts to probe directly, the configured server and the servers found by the last scan.
+     */
+    private final Set<String> mKnownHosts = new LinkedHashSet<>();
+
     /**
      * UDP port to broadcast discovery requests to.
      */
@@ -50,20 +75,50 @@ public class ScanNetworkTask implements Runnable {
      */
     private static final int DISCOVERY_ATTEMPT_TIMEOUT = 1400;
 
+    /**
+     * Number of times discovery requests are sent, in case a request or response is lost.
+     */
+    private static final int DISCOVERY_ATTEMPTS = 3;
+
+    /**
+     * Time between sending discovery requests (ms).
+     */
+    private static final int DISCOVERY_RETRANSMIT_INTERVAL = 300;
+
+    /**
+     * Maximum random delay added to the retransmissions (ms), so controllers which scan at the
+     * same time don't keep sending together.
+     */
+    private static final int DISCOVERY_RETRANSMIT_JITTER = 100;
+
     public ScanNetworkTask(Context context, ScanNetworkCallback callback) {
         this.callback = callback;
         wm = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
         defaultHttpPort = context.getResources().getInteger(R.integer.DefaultHttpPort);
+
+        Preferences.ServerAddress serverAddress = new Preferences(context).getServerAddress();
+        if (!serverAddress.squeezeNetwork && serverAddress.localAddress() != null) {
+            mKnownHosts.add(serverAddress.localHost());
+        }
+        synchronized (sLastKnownHosts) {
+            mKnownHosts.addAll(sLastKnownHosts);
+        }
     }
 
     /**
      * Discover Squeeze servers on the local network.
      * <p>
-     * Do this by sending an UDP broadcasts to port 3483 and wait approximately
+     * Do this by sending UDP packets to port 3483 and wait approximately
      * DISCOVERY_ATTEMPT_TIMEOUT for responses. Squeeze servers are supposed to listen for this,
      * and respond with a packet that starts 'E' and some information about the server in type,
      * value pairs
      * <p>
+     * The request is sent directly to the configured server and the servers found by the last
+     * scan, so they usually answer within a few milliseconds, and broadcast to the limited
+     * broadcast address and the directed broadcast address of each network interface which is
+     * up, so servers are found whichever interface they are on. The requests are sent again
+     * DISCOVERY_ATTEMPTS times, with a bit of random delay, in case packets are lost.
+     * <p>
      * The server name is the section with the type "NAME".
      * The http port is the section with the type "JSON".
      * <p>
@@ -100,23 +155,40 @@ public class ScanNetworkTask implements Runnable {
         wifiLock.acquire();
 
         try {
-            InetAddress broadcastAddress = InetAddress.getByName("255.255.255.255");
-            boolean timedOut;
+            Set<InetAddress> destinations = getDestinations();
             socket = new DatagramSocket();
-            DatagramPacket discoveryPacket = new DatagramPacket(data, data.length,
-                    broadcastAddress, DISCOVERY_PORT);
+            socket.setBroadcast(true);
+            DatagramPacket discoveryPacket = new DatagramPacket(data, data.length);
+            discoveryPacket.setPort(DISCOVERY_PORT);
 
             byte[] buf = new byte[512];
             DatagramPacket responsePacket = new DatagramPacket(buf, buf.length);
 
-            socket.setSoTimeout(DISCOVERY_ATTEMPT_TIMEOUT);
-            socket.send(discoveryPacket);
-            timedOut = false;
-            while (!timedOut) {
-                if (cancelled) {
-                    break;
+            Random random = new Random();
+            long startTime = SystemClock.elapsedRealtime();
+            long endTime = startTime + DISCOVERY_ATTEMPT_TIMEOUT;
+            long nextSendTime = startTime;
+            int attempts = 0;
+            while (!cancelled) {
+                long now = SystemClock.elapsedRealtime();
+                if (attempts < DISCOVERY_ATTEMPTS && now >= nextSendTime) {
+                    sendDiscovery(socket, discoveryPacket, destinations);
+                    attempts++;
+                    nextSendTime = startTime + attempts * DISCOVERY_RETRANSMIT_INTERVAL
+                            + random.nextInt(DISCOVERY_RETRANSMIT_JITTER);
+                }
+
+                long timeout = (attempts < DISCOVERY_ATTEMPTS ? Math.min(nextSendTime, endTime) : endTime) - now;
+                if (timeout <= 0) {
+                    if (now >= endTime) {
+                        break;
+                    }
+                    continue;
                 }
+
+                socket.setSoTimeout((int) timeout);
                 try {
+                    responsePacket.setLength(buf.length);
                     socket.receive(responsePacket);
                     if (buf[0] == (byte) 'E') {
                         Map<String, String> discover = parseDiscover(responsePacket.getLength(), responsePacket.getData());
@@ -125,22 +197,18 @@ public class ScanNetworkTask implements Runnable {
                         if (name != null) {
                             String host = responsePacket.getAddress().getHostAddress();
                             String port = discover.containsKey("JSON") ? discover.get("JSON") : String.valueOf(defaultHttpPort);
-                            mServerMap.put(name, host + ':' + port);
+                            onServerFound(name, host + ':' + port);
                         }
                     }
-                } catch (IOException e) {
-                    timedOut = true;
+                } catch (SocketTimeoutException e) {
+                    // Time to send the request again, or to finish
                 }
             }
 
         } catch (SocketException e) {
             // new DatagramSocket(3483)
-        } catch (UnknownHostException e) {
-            // InetAddress.getByName()
-            Log.e(TAG, "UnknownHostException", e);
-            // TODO remote logging Util.crashlyticsLogException(e);
         } catch (IOException e) {
-            // socket.send()
+            // socket.receive()
             Log.e(TAG, "IOException", e);
             // TODO remote logging Util.crashlyticsLogException(e);
         } finally {
@@ -154,10 +222,92 @@ public class ScanNetworkTask implements Runnable {
 
         // For testing that multiple servers are handled correctly.
         // mServerMap.put("Dummy", "127.0.0.1");
+        synchronized (sLastKnownHosts) {
+            sLastKnownHosts.clear();
+            for (String address : mServerMap.values()) {
+                sLastKnownHosts.add(address.substring(0, address.lastIndexOf(':')));
+            }
+        }
         uiThreadHandler.post(new Runnable() {
             @Override
             public void run() {
-                callback.onScanFinished(mServerMap);
+                if (!cancelled) {
+                    callback.onScanFinished(mServerMap);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The addresses to send discovery requests to. The known servers first, so they can
+     *     answer while the broadcast requests are sent.
+     */
+    private Set<InetAddress> getDestinations() {
+        Set<InetAddress> destinations = new LinkedHashSet<>();
+
+        for (String host : mKnownHosts) {
+            try {
+                destinations.add(InetAddress.getByName(host));
+            } catch (UnknownHostException e) {
+                Log.i(TAG, "Can't resolve " + host);
+            }
+        }
+
+        try {
+            destinations.add(InetAddress.getByName("255.255.255.255"));
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
+                    if (interfaceAddress.getAddress() instanceof Inet4Address && interfaceAddress.getBroadcast() != null) {
+                        destinations.add(interfaceAddress.getBroadcast());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Use the destinations we have so far
+            Log.w(TAG, "Can't list network interfaces", e);
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Discovery destinations: " + destinations);
+        }
+        return destinations;
+    }
+
+    /**
+     * Send the discovery request to each destination. Failing to reach one of them, e.g. because
+     * an interface went down, doesn't stop us from trying the others.
+     */
+    private void sendDiscovery(DatagramSocket socket, DatagramPacket discoveryPacket, Set<InetAddress> destinations) {
+        for (InetAddress destination : destinations) {
+            try {
+                discoveryPacket.setAddress(destination);
+                socket.send(discoveryPacket);
+            } catch (IOException e) {
+                Log.i(TAG, "Can't send discovery request to " + destination + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Report a server the first time it answers. A server which answers on more than one address,
+     * e.g. to both the direct and the broadcast request, keeps the address it first answered on.
+     */
+    private void onServerFound(final String name, final String address) {
+        synchronized (mServerMap) {
+            if (mServerMap.containsKey(name)) {
+                return;
+            }
+            mServerMap.put(name, address);
+        }
+        uiThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    callback.onServerFound(name, address);
+                }
             }
         });
     }
@@ -210,10 +360,17 @@ public class ScanNetworkTask implements Runnable {
 
     public void cancel() {
         cancelled = true;
-        callback.onScanFinished(mServerMap);
+        synchronized (mServerMap) {
+            callback.onScanFinished(new TreeMap<>(mServerMap));
+        }
     }
 
     public interface ScanNetworkCallback {
+        /**
+         * Called on the UI thread when a server answers, while the scan is still running.
+         */
+        void onServerFound(String name, String address);
+
         void onScanFinished(TreeMap<String, String> mServerMap);
     }
 }
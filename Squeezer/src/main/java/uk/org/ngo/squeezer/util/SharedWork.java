@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Work which is shared by concurrent requests for the same key, e.g. fetching an image which is
+ * shown in several places.
+ * <p>
+ * The work runs on its own executor, so it is not affected when one of the requesters is
+ * cancelled. It is only cancelled when the last requester stops waiting for it.
+ */
+class SharedWork<T> {
+    private static final String TAG = "SharedWork";
+
+    /** Work in progress, by key. */
+    private final Map<String, Task> mInFlight = new HashMap<>();
+
+    /**
+     * Get the result of the work for the given key. If no such work is in progress it is started
+     * on the given executor.
+     *
+     * @return The result, or null if the work failed
+     * @throws InterruptedException If the calling thread was interrupted while waiting
+     */
+    @Nullable
+    T get(@NonNull String key, @NonNull Callable<T> work, @NonNull Executor executor) throws InterruptedException {
+        Task task;
+        boolean started = false;
+        synchronized (mInFlight) {
+            task = mInFlight.get(key);
+            if (task == null) {
+                task = new Task(key, work);
+                mInFlight.put(key, task);
+                started = true;
+            }
+            task.waiters++;
+        }
+
+        if (started) {
+            executor.execute(task);
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed work for " + key, e.getCause());
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        } finally {
+            leave(task);
+        }
+    }
+
+    private void leave(Task task) {
+        synchronized (mInFlight) {
+            if (--task.waiters == 0 && !task.isDone()) {
+                // Nobody wants the result any more, so new requests must start over
+                if (mInFlight.get(task.key) == task) {
+                    mInFlight.remove(task.key);
+                }
+                task.cancel(true);
+            }
+        }
+    }
+
+    private class Task extends FutureTask<T> {
+        private final String key;
+
+        /** Number of requesters waiting for the result, guarded by {@link #mInFlight}. */
+        private int waiters;
+
+        private Task(String key, Callable<T> work) {
+            super(work);
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            synchronized (mInFlight) {
+                if (mInFlight.get(key) == this) {
+                    mInFlight.remove(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.framework;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PageStoreTest extends TestCase {
+    private static final int PAGE_SIZE = 4;
+
+    private final List<int[]> evicted = new ArrayList<>();
+
+    private final PageStore<String> store = new PageStore<>(PAGE_SIZE, 3 * PAGE_SIZE, new PageStore.EvictionListener() {
+        @Override
+        public void onEvicted(int start, int length) {
+            evicted.add(new int[]{start, length});
+        }
+    });
+
+    public void testSetAndGet() {
+        store.setSize(10);
+        assertEquals(10, store.size());
+        assertNull(store.get(9));
+
+        store.set(5, "5");
+        store.set(9, "9");
+        assertEquals("5", store.get(5));
+        assertEquals("9", store.get(9));
+        assertNull(store.get(4));
+
+        store.setSize(6);
+        assertEquals(6, store.size());
+        assertEquals("5", store.get(5));
+
+        store.setSize(12);
+        assertNull(store.get(9));
+    }
+
+    public void testEviction() {
+        store.setSize(40);
+        for (int i = 0; i < 20; i++) {
+            store.set(i, String.valueOf(i));
+        }
+
+        // Only 3 pages fit, so the two first pages are evicted
+        assertEquals(2, evicted.size());
+        assertEquals(0, evicted.get(0)[0]);
+        assertEquals(PAGE_SIZE, evicted.get(1)[0]);
+        assertNull(store.get(0));
+        assertEquals("19", store.get(19));
+
+        // Using a page makes it recently used, so the next eviction takes another page
+        assertEquals("8", store.get(8));
+        store.set(20, "20");
+        assertEquals(12, evicted.get(2)[0]);
+        assertEquals("8", store.get(8));
+    }
+
+    public void testEvictionAfterInsert() {
+        store.setSize(16);
+        for (int i = 0; i < 4; i++) {
+            store.set(i, String.valueOf(i));
+        }
+        // Split the first page, so the following segments move
+        for (int i = 0; i < 2 * PAGE_SIZE; i++) {
+            store.insert(0, "i" + i);
+        }
+        assertEquals(24, store.size());
+        assertTrue(evicted.isEmpty());
+
+        // The tail split off the first page is least recently used
+        store.set(16, "16");
+        assertEquals(7, evicted.get(0)[0]);
+        assertEquals(5, evicted.get(0)[1]);
+        store.set(20, "20");
+        assertEquals(0, evicted.get(1)[0]);
+        assertEquals(7, evicted.get(1)[1]);
+
+        store.set(12, "12");
+        store.set(0, "0");
+        assertEquals(4, evicted.size());
+        assertEquals(16, evicted.get(2)[0]);
+        assertEquals(20, evicted.get(3)[0]);
+        assertEquals("12", store.get(12));
+    }
+
+    public void testInsertAndRemove() {
+        List<String> expected = new ArrayList<>();
+        PageStore<String> store = new PageStore<>(PAGE_SIZE, Integer.MAX_VALUE, null);
+        store.setSize(10);
+        for (int i = 0; i < 10; i++) {
+            store.set(i, String.valueOf(i));
+            expected.add(String.valueOf(i));
+        }
+
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            if (expected.isEmpty() || random.nextInt(3) > 0) {
+                int position = random.nextInt(expected.size() + 1);
+                store.insert(position, "i" + i);
+                expected.add(position, "i" + i);
+            } else {
+                int position = random.nextInt(expected.size());
+                store.remove(position);
+                expected.remove(position);
+            }
+            assertEquals(expected.size(), store.size());
+        }
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), store.get(i));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import com.google.common.base.Ticker;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import uk.org.ngo.squeezer.model.Player;
+import uk.org.ngo.squeezer.service.event.PlaylistChanged;
+
+public class PlaylistEditTrackerTest extends TestCase {
+    private long now;
+
+    private final PlaylistEditTracker tracker = new PlaylistEditTracker(new Ticker() {
+        @Override
+        public long read() {
+            return now;
+        }
+    });
+
+    private final Player player = player("00:04:20:00:00:01");
+
+    public void testExpectedEdits() {
+        delete(2);
+        move(0, 3);
+
+        PlaylistChanged.Edit edit = tracker.onPlaylistChanged(player, 10, 5, 9, 4);
+        assertEquals(PlaylistChanged.Edit.Type.DELETE, edit.type);
+        assertEquals(2, edit.position);
+
+        edit = tracker.onPlaylistChanged(player, 9, 4, 9, 4);
+        assertEquals(PlaylistChanged.Edit.Type.MOVE, edit.type);
+        assertEquals(0, edit.position);
+        assertEquals(3, edit.toPosition);
+
+        assertNull(tracker.onPlaylistChanged(player, 9, 4, 10, 4));
+    }
+
+    public void testExpiredEditIsNotMatched() {
+        // The server ignores the delete, and another controller deletes a track later
+        delete(2);
+        now += TimeUnit.SECONDS.toNanos(10);
+        assertNull(tracker.onPlaylistChanged(player, 10, 5, 9, 4));
+
+        // An edit sent before the unrelated change is still matched
+        delete(2);
+        now += TimeUnit.SECONDS.toNanos(10);
+        delete(7);
+        PlaylistChanged.Edit edit = tracker.onPlaylistChanged(player, 10, 5, 9, 5);
+        assertEquals(7, edit.position);
+    }
+
+    public void testMismatchedIndexClearsExpectedEdits() {
+        // Another controller deletes a track before the current track, instead of after it
+        delete(7);
+        delete(7);
+        assertNull(tracker.onPlaylistChanged(player, 10, 5, 9, 4));
+
+        // The second delete is forgotten, so the next change is not known either
+        assertNull(tracker.onPlaylistChanged(player, 9, 4, 8, 4));
+    }
+
+    public void testMismatchedCountClearsExpectedEdits() {
+        append();
+        move(1, 2);
+        assertNull(tracker.onPlaylistChanged(player, 10, 5, 9, 5));
+        assertNull(tracker.onPlaylistChanged(player, 9, 5, 9, 5));
+    }
+
+    private void append() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("cmd", "add");
+        tracker.onCommand(player, new String[]{"playlistcontrol"}, params);
+    }
+
+    private void delete(int position) {
+        tracker.onCommand(player, new String[]{"playlist", "delete", String.valueOf(position)}, Collections.<String, Object>emptyMap());
+    }
+
+    private void move(int from, int to) {
+        tracker.onCommand(player, new String[]{"playlist", "move", String.valueOf(from), String.valueOf(to)}, Collections.<String, Object>emptyMap());
+    }
+
+    private static Player player(String id) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("playerid", id);
+        record.put("name", id);
+        return new Player(record);
+    }
+}
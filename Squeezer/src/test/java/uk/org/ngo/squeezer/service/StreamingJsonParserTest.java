@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import org.cometd.bayeux.Message;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+public class StreamingJsonParserTest extends TestCase {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void testParseMessages() throws Exception {
+        List<Message.Mutable> messages = StreamingJsonParser.parseMessages(bytes(
+                "[{\"channel\":\"/slim/request\",\"successful\":true,\"id\":\"12\"},"
+                        + " {\"channel\":\"/abc/slim/request/1\",\"data\":{\"count\":2,\"rate\":1.5,"
+                        + "\"item_loop\":[{\"text\":\"Bl\\u00e5b\\u00e6r\"},{\"text\":\"Æbler \\\"og\\\" ☺\"}],"
+                        + "\"empty\":[],\"nested\":[[1,-2],[true,false,null]]}}]"));
+
+        assertEquals(2, messages.size());
+        assertEquals("/slim/request", messages.get(0).getChannel());
+        assertTrue(messages.get(0).isSuccessful());
+        assertEquals("12", messages.get(0).getId());
+
+        Map<String, Object> data = messages.get(1).getDataAsMap();
+        assertEquals(2L, data.get("count"));
+        assertEquals(1.5, data.get("rate"));
+
+        Object[] items = (Object[]) data.get("item_loop");
+        assertEquals(2, items.length);
+        assertEquals("Blåbær", ((Map) items[0]).get("text"));
+        assertEquals("Æbler \"og\" ☺", ((Map) items[1]).get("text"));
+
+        assertEquals(0, ((Object[]) data.get("empty")).length);
+        Object[] nested = (Object[]) data.get("nested");
+        assertEquals(-2L, ((Object[]) nested[0])[1]);
+        assertEquals(Boolean.FALSE, ((Object[]) nested[1])[1]);
+        assertNull(((Object[]) nested[1])[2]);
+    }
+
+    public void testSingleMessage() throws Exception {
+        List<Message.Mutable> messages = StreamingJsonParser.parseMessages(bytes("{\"channel\":\"/meta/connect\"}"));
+        assertEquals(1, messages.size());
+        assertEquals("/meta/connect", messages.get(0).getChannel());
+    }
+
+    public void testInvalidContent() {
+        String[] invalid = {"", "[", "[{\"a\":}]", "[{\"a\":1]", "\"text\"", "[{\"a\":tru}]"};
+        for (String content : invalid) {
+            try {
+                StreamingJsonParser.parseMessages(bytes(content));
+                fail("Expected ParseException for '" + content + "'");
+            } catch (ParseException expected) {
+            }
+        }
+    }
+
+    public void testChunkedBody() throws Exception {
+        // The second message is split across chunks in the middle of a multi-byte character
+        byte[] message1 = bytes("[{\"channel\":\"/a\"}]");
+        byte[] message2 = bytes("[{\"channel\":\"/b\",\"data\":{\"text\":\"æøå\"}}]");
+        int split = 34;
+
+        String response = "HTTP/1.1 200 OK\r\n"
+                + "Transfer-Encoding: chunked\r\n"
+                + "\r\n";
+        byte[] stream = concat(
+                bytes(response),
+                chunk(message1, 0, message1.length),
+                chunk(message2, 0, split),
+                chunk(message2, split, message2.length - split),
+                bytes("0\r\n\r\n"));
+
+        StreamingJsonParser parser = new StreamingJsonParser(new ByteArrayInputStream(stream));
+        assertEquals("HTTP/1.1 200 OK", parser.readLine());
+        assertEquals("Transfer-Encoding: chunked", parser.readLine());
+        assertEquals("", parser.readLine());
+
+        parser.startChunkedBody();
+        assertTrue(parser.hasMoreContent());
+        assertEquals("/a", parser.readMessages().get(0).getChannel());
+        assertTrue(parser.hasMoreContent());
+        Message message = parser.readMessages().get(0);
+        assertEquals("/b", message.getChannel());
+        assertEquals("æøå", message.getDataAsMap().get("text"));
+        assertEquals("{\"text\":\"æøå\"}", new String(StreamingJsonParser.getRawData(message), UTF_8));
+        assertFalse(parser.hasMoreContent());
+    }
+
+    public void testRawData() throws Exception {
+        String data = "{\"count\":12, \"item_loop\":[{\"id\":1.5e3}],\"text\":\"\\u00e6\"}";
+        List<Message.Mutable> messages = StreamingJsonParser.parseMessages(bytes(
+                "[{\"channel\":\"/a\",\"data\":" + data + ",\"id\":\"1\"},{\"channel\":\"/b\",\"data\":[1]}]"));
+
+        assertEquals(data, new String(StreamingJsonParser.getRawData(messages.get(0)), UTF_8));
+        assertEquals(12L, messages.get(0).getDataAsMap().get("count"));
+        assertEquals("1", messages.get(0).getId());
+        assertNull(StreamingJsonParser.getRawData(messages.get(1)));
+    }
+
+    public void testFixedLengthBody() throws Exception {
+        byte[] body = bytes("[{\"channel\":\"/a\"}]  ");
+        byte[] stream = concat(body, bytes("HTTP/1.1 200 OK\r\n"));
+
+        StreamingJsonParser parser = new StreamingJsonParser(new ByteArrayInputStream(stream));
+        parser.startBody(body.length);
+        assertEquals("/a", parser.readMessages().get(0).getChannel());
+        parser.skipBody();
+        assertEquals("HTTP/1.1 200 OK", parser.readLine());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    private static byte[] chunk(byte[] data, int start, int length) {
+        byte[] header = bytes(Integer.toHexString(length) + "\r\n");
+        byte[] chunk = new byte[length];
+        System.arraycopy(data, start, chunk, 0, length);
+        return concat(header, chunk, bytes("\r\n"));
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, pos, array.length);
+            pos += array.length;
+        }
+        return result;
+    }
+}
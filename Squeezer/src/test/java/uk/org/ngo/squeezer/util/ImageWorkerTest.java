@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.util;
+
+import android.util.DisplayMetrics;
+
+import junit.framework.TestCase;
+
+import uk.org.ngo.squeezer.NowPlayingFragment;
+
+public class ImageWorkerTest extends TestCase {
+    private static final String ARTWORK = "http://localhost:9000/music/1234/cover";
+
+    /**
+     * The artwork of the next tracks is prefetched by the service, and must be found in the memory
+     * cache when the track starts, even if the screen has been rotated in between.
+     */
+    public void testPrefetchedNowPlayingArtworkIsCacheHit() {
+        String prefetched = nowPlayingKey(1080, 1920);
+
+        assertEquals(prefetched, nowPlayingKey(1080, 1920));
+        assertEquals(prefetched, nowPlayingKey(1920, 1080));
+        assertEquals(ImageWorker.hashKeyForMemory(ARTWORK, 1080, 1080), prefetched);
+    }
+
+    private static String nowPlayingKey(int widthPixels, int heightPixels) {
+        DisplayMetrics displayMetrics = new DisplayMetrics();
+        displayMetrics.widthPixels = widthPixels;
+        displayMetrics.heightPixels = heightPixels;
+        int size = NowPlayingFragment.getArtworkSize(displayMetrics);
+        return ImageWorker.hashKeyForMemory(ARTWORK, size, size);
+    }
+}
@@ -298,6 +298,19 @@ public class ReflectionTest extends TestCase {
         assertEquals(Item2.class, Reflection.getGenericClass(BB.class, AA.class, 1));
     }
 
+    public void testCachedTypes() {
+        // Resolved once, and looked up the second time
+        assertEquals(GroupItem1.class, Reflection.getGenericClass(BIG1.class, AI.class, 0));
+        assertEquals(GroupItem1.class, Reflection.getGenericClass(BIG1.class, AI.class, 0));
+
+        // Changing the returned types doesn't change the cached types
+        Type[] types = Reflection.genericTypeResolver(BB.class, AA.class);
+        types[0] = Item2.class;
+        assertTypesEquals(new Type[]{Item1.class, Item2.class},
+                Reflection.genericTypeResolver(BB.class, AA.class));
+        assertEquals(Item1.class, Reflection.getGenericClass(BB.class, AA.class, 0));
+    }
+
     public void testResolveGenericCollections() {
         List<Item1> itemList = new ArrayList<Item1>() {
             private static final long serialVersionUID = 1L;
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer.util;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SharedWorkTest extends TestCase {
+    private final SharedWork<String> sharedWork = new SharedWork<>();
+
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            new Thread(command).start();
+        }
+    };
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch workInterrupted = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    private final Callable<String> work = new Callable<String>() {
+        @Override
+        public String call() throws InterruptedException {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                workInterrupted.countDown();
+                throw e;
+            }
+            return "bitmap";
+        }
+    };
+
+    public void testCancelledRequesterDoesNotCancelOthers() throws InterruptedException {
+        Requester first = new Requester();
+        first.start();
+        started.await();
+        Requester second = new Requester();
+        second.start();
+        second.awaitWaiting();
+
+        // The first requester is cancelled, like an AsyncTask with cancel(true)
+        first.interrupt();
+        first.join();
+        assertTrue(first.interrupted);
+
+        release.countDown();
+        second.join();
+        assertEquals("bitmap", second.result);
+        assertEquals(1, runs.get());
+        assertEquals(1, workInterrupted.getCount());
+    }
+
+    public void testLastRequesterCancelsWork() throws InterruptedException {
+        Requester requester = new Requester();
+        requester.start();
+        started.await();
+
+        requester.interrupt();
+        requester.join();
+        assertTrue(requester.interrupted);
+        workInterrupted.await();
+
+        // A new request starts over
+        release.countDown();
+        Requester next = new Requester();
+        next.start();
+        next.join();
+        assertEquals("bitmap", next.result);
+        assertEquals(2, runs.get());
+    }
+
+    private class Requester extends Thread {
+        volatile String result;
+        volatile boolean interrupted;
+
+        @Override
+        public void run() {
+            try {
+                result = sharedWork.get("key", work, executor);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        /** Wait until this requester is waiting for the shared work. */
+        void awaitWaiting() throws InterruptedException {
+            while (getState() != State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+    }
+}
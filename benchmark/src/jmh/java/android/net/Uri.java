@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The part of {@link Uri} used when items are created from server records.
+ * <p>
+ * The stubbed android.jar returns null from {@link #parse(String)}, so every item with an icon
+ * would fail.
+ */
+public class Uri implements Comparable<Uri> {
+    public static final Uri EMPTY = new Uri("");
+
+    private final String uriString;
+
+    private Uri(String uriString) {
+        this.uriString = uriString;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public String getScheme() {
+        int ssi = uriString.indexOf(':');
+        int slash = uriString.indexOf('/');
+        return (ssi == -1 || (slash != -1 && slash < ssi)) ? null : uriString.substring(0, ssi);
+    }
+
+    public boolean isAbsolute() {
+        return getScheme() != null;
+    }
+
+    public boolean isRelative() {
+        return !isAbsolute();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof Uri) && uriString.equals(((Uri) o).uriString);
+    }
+
+    @Override
+    public int hashCode() {
+        return uriString.hashCode();
+    }
+
+    @Override
+    public int compareTo(@NonNull Uri other) {
+        return uriString.compareTo(other.uriString);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return uriString;
+    }
+}
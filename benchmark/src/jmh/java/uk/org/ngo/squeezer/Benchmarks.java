@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer;
+
+import android.content.res.Resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Support for running app code outside of Android.
+ */
+public class Benchmarks {
+    private static Squeezer context;
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Install an application context which provides the resources and directories used by the
+     * benchmarked code, and return it.
+     */
+    public static synchronized Squeezer context() throws IOException {
+        if (context == null) {
+            final File cacheDir = File.createTempFile("squeezer", "cache");
+            if (!cacheDir.delete() || !cacheDir.mkdir()) {
+                throw new IOException("Can't create " + cacheDir);
+            }
+            cacheDir.deleteOnExit();
+
+            final Resources resources = resources();
+            context = new Squeezer() {
+                @Override
+                public Resources getResources() {
+                    return resources;
+                }
+
+                @Override
+                public File getCacheDir() {
+                    return cacheDir;
+                }
+
+                @Override
+                public File getExternalCacheDir() {
+                    return null;
+                }
+            };
+        }
+        return context;
+    }
+
+    /**
+     * @return Resources with the values from res/values/constants.xml.
+     */
+    public static Resources resources() {
+        return new Resources(null, null, null) {
+            @Override
+            public int getInteger(int id) {
+                if (id == R.integer.PageSize) return 20;
+                if (id == R.integer.PublishWindow) return 8;
+                throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
+            }
+        };
+    }
+
+    /**
+     * @return The content of the given file in the fixtures folder.
+     */
+    public static byte[] fixture(String name) throws IOException {
+        try (InputStream in = Benchmarks.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Records the fixtures of the benchmarks from a server.
+ * <p>
+ * The replies are fetched with the server's JSON-RPC interface and stored as the Bayeux messages
+ * the server sends for the same requests on the comet connection. The result is kept as the bytes
+ * received from the server.
+ * <p>
+ * Usage: <code>CaptureFixtures host[:port] &lt;player id&gt; &lt;directory&gt;</code>
+ */
+public class CaptureFixtures {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Client id used in the channels of the stored messages. */
+    private static final String CLIENT_ID = "1a2b3c4d";
+
+    private static final int DEFAULT_HTTP_PORT = 9000;
+    private static final int DISCOVERY_PORT = 3483;
+    private static final int DISCOVERY_TIMEOUT = 2000;
+
+    /** Number of albums in the browse reply. */
+    private static final int BROWSE_COUNT = 100;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args[0].isEmpty() || args[1].isEmpty()) {
+            System.err.println("Usage: CaptureFixtures host[:port] <player id> <directory>");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = DEFAULT_HTTP_PORT;
+        int colon = host.indexOf(':');
+        if (colon != -1) {
+            port = Integer.parseInt(host.substring(colon + 1));
+            host = host.substring(0, colon);
+        }
+        String playerId = args[1];
+        File directory = new File(args[2]);
+        URL url = new URL("http", host, port, "/jsonrpc.js");
+
+        byte[] albums = request(url, "", "browselibrary", "items", 0, BROWSE_COUNT, "menu:1", "mode:albums", "useContextMenu:1");
+        write(new File(directory, "browse_albums.json"), message("/" + CLIENT_ID + "/slim/request/1", "\"id\":\"1\",", albums));
+
+        byte[] status = request(url, playerId, "status", "-", 1, "menu:menu", "useContextMenu:1");
+        write(new File(directory, "player_status.json"), message("/" + CLIENT_ID + "/slim/playerstatus/" + playerId, "", status));
+
+        write(new File(directory, "discover_reply.bin"), discover(host));
+    }
+
+    /**
+     * Send a request to the JSON-RPC interface of the server.
+     *
+     * @return The bytes of the result object in the reply.
+     */
+    private static byte[] request(URL url, String playerId, Object... cmd) throws IOException {
+        StringBuilder body = new StringBuilder("{\"id\":1,\"method\":\"slim.request\",\"params\":[");
+        appendJson(body, playerId).append(",[");
+        for (int i = 0; i < cmd.length; i++) {
+            if (i > 0) body.append(',');
+            appendJson(body, cmd[i]);
+        }
+        body.append("]]}");
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.toString().getBytes(UTF_8));
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException(url + ": " + connection.getResponseCode() + " " + connection.getResponseMessage());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return result(readAll(in));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static StringBuilder appendJson(StringBuilder sb, Object value) {
+        if (value instanceof Number) {
+            return sb.append(value);
+        }
+        return sb.append('"').append(value.toString().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+    }
+
+    /**
+     * @return The value of the "result" member of the JSON-RPC reply.
+     */
+    private static byte[] result(byte[] reply) throws IOException {
+        byte[] key = "\"result\"".getBytes(UTF_8);
+        int depth = 0;
+        for (int i = 0; i < reply.length; i++) {
+            byte b = reply[i];
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            } else if (b == '"') {
+                if (depth == 1 && regionMatches(reply, i, key)) {
+                    int start = i + key.length;
+                    while (start < reply.length && (reply[start] == ':' || Character.isWhitespace(reply[start]))) {
+                        start++;
+                    }
+                    if (start < reply.length && reply[start] == '{') {
+                        return Arrays.copyOfRange(reply, start, endOfObject(reply, start));
+                    }
+                    break;
+                }
+                i = endOfString(reply, i);
+            }
+        }
+        throw new IOException("No result in reply: " + new String(reply, UTF_8));
+    }
+
+    private static boolean regionMatches(byte[] data, int offset, byte[] region) {
+        if (offset + region.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < region.length; i++) {
+            if (data[offset + i] != region[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Position of the closing quote of the string starting at the given position.
+     */
+    private static int endOfString(byte[] data, int start) {
+        int i = start + 1;
+        while (i < data.length && data[i] != '"') {
+            i += (data[i] == '\\' ? 2 : 1);
+        }
+        return i;
+    }
+
+    /**
+     * @return Position after the end of the object starting at the given position.
+     */
+    private static int endOfObject(byte[] data, int start) throws IOException {
+        int depth = 0;
+        for (int i = start; i < data.length; i++) {
+            byte b = data[i];
+            if (b == '"') {
+                i = endOfString(data, i);
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        throw new IOException("Unterminated object at " + start);
+    }
+
+    /**
+     * @return A message list as sent on the comet connection, with the given data.
+     */
+    private static byte[] message(String channel, String fields, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("[{\"channel\":\"" + channel + "\"," + fields + "\"data\":").getBytes(UTF_8));
+        out.write(data);
+        out.write("}]".getBytes(UTF_8));
+        return out.toByteArray();
+    }
+
+    /**
+     * Send the discovery request of {@link uk.org.ngo.squeezer.util.ScanNetworkTask} to the server.
+     *
+     * @return The reply packet.
+     */
+    private static byte[] discover(String host) throws IOException {
+        byte[] request = {
+                'e',
+                'I', 'P', 'A', 'D', 0,
+                'N', 'A', 'M', 'E', 0,
+                'J', 'S', 'O', 'N', 0,
+        };
+        byte[] data = new byte[512];
+        System.arraycopy(request, 0, data, 0, request.length);
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(DISCOVERY_TIMEOUT);
+            socket.send(new DatagramPacket(data, data.length, InetAddress.getByName(host), DISCOVERY_PORT));
+            byte[] buffer = new byte[512];
+            DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+            socket.receive(reply);
+            return Arrays.copyOf(buffer, reply.getLength());
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        Files.write(file.toPath(), content);
+        System.out.println("Wrote " + file + " (" + content.length + " bytes)");
+    }
+}
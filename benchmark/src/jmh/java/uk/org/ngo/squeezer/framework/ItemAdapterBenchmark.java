@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer.framework;
+
+import android.content.res.Resources;
+import android.os.Parcelable;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+import androidx.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import uk.org.ngo.squeezer.Benchmarks;
+import uk.org.ngo.squeezer.R;
+import uk.org.ngo.squeezer.Util;
+import uk.org.ngo.squeezer.model.Plugin;
+import uk.org.ngo.squeezer.service.FixtureMessages;
+import uk.org.ngo.squeezer.service.ISqueezeService;
+
+/**
+ * Updating the list of an {@link ItemListActivity} with received pages, and moving items in it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ItemAdapterBenchmark {
+    private static final String URL_PREFIX = "http://192.168.1.2:9000";
+
+    /** Number of items in the list, e.g. the albums of a large library. */
+    @Param({"1000", "40000"})
+    public int count;
+
+    private ItemAdapter<Plugin> adapter;
+    private List<Plugin> page;
+    private int nextPage;
+    private final Random random = new Random(1);
+
+    @Setup
+    public void setup() throws IOException, ParseException {
+        Benchmarks.context();
+
+        Map<String, Object> data = FixtureMessages.parse("browse_albums.json").get(0).getDataAsMap();
+        ItemTemplate base = new ItemTemplate(Util.getRecord(data, "base"), URL_PREFIX);
+        Object[] records = (Object[]) data.get("item_loop");
+        int pageSize = Benchmarks.resources().getInteger(R.integer.PageSize);
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add(new Plugin((Map<String, Object>) records[i % records.length], base));
+        }
+
+        adapter = new ItemAdapter<>(new BenchmarkItemView(new BenchmarkActivity()));
+        for (int start = 0; start < count; start += page.size()) {
+            update();
+        }
+    }
+
+    /** Receive the next page, as when scrolling through the list. */
+    @Benchmark
+    public void update() {
+        int start = nextPage * page.size();
+        adapter.update(count, start, page.subList(0, Math.min(page.size(), count - start)));
+        nextPage = (start + page.size() < count ? nextPage + 1 : 0);
+    }
+
+    /** Move an item, e.g. in the current playlist. */
+    @Benchmark
+    public void removeAndInsert() {
+        int from = random.nextInt(count);
+        Plugin item = adapter.getItem(from);
+        adapter.removeItem(from);
+        adapter.insertItem(random.nextInt(count), item);
+    }
+
+    private static class BenchmarkActivity extends ItemListActivity {
+        private final Resources resources = Benchmarks.resources();
+
+        @Override
+        public Resources getResources() {
+            return resources;
+        }
+
+        @Override
+        public void onItemsEvicted(int start, int length) {
+        }
+
+        @Override
+        protected boolean needPlayer() {
+            return false;
+        }
+
+        @Override
+        protected void orderPage(@NonNull ISqueezeService service, int start) {
+        }
+
+        @Override
+        protected AbsListView setupListView(AbsListView listView) {
+            return listView;
+        }
+
+        @Override
+        protected void clearItemAdapter() {
+        }
+
+        @Override
+        protected <T extends Item> void updateAdapter(int count, int start, List<T> items, Class<T> dataType) {
+        }
+    }
+
+    private static class BenchmarkItemView implements ItemView<Plugin> {
+        private final ItemListActivity activity;
+
+        private BenchmarkItemView(ItemListActivity activity) {
+            this.activity = activity;
+        }
+
+        @Override
+        public ItemListActivity getActivity() {
+            return activity;
+        }
+
+        @Override
+        public View getAdapterView(View convertView, ViewGroup parent, int position, Plugin item) {
+            return convertView;
+        }
+
+        @Override
+        public View getAdapterView(View convertView, ViewGroup parent, String text) {
+            return convertView;
+        }
+
+        @Override
+        public Class<Plugin> getItemClass() {
+            return Plugin.class;
+        }
+
+        @Override
+        public Parcelable.Creator<Plugin> getCreator() {
+            return Plugin.CREATOR;
+        }
+
+        @Override
+        public boolean isSelectable(Plugin item) {
+            return false;
+        }
+
+        @Override
+        public void onItemSelected(View view, int index, Plugin item) {
+        }
+
+        @Override
+        public void showContextMenu(BaseItemView.ViewHolder v, Plugin item) {
+        }
+    }
+}
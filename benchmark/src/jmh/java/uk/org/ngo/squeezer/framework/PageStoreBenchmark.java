@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.framework;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The item storage of {@link ItemAdapter}: receiving pages while scrolling through a large list,
+ * and inserting and removing items.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PageStoreBenchmark {
+    private static final int PAGE_SIZE = 20;
+    private static final int MAX_LOADED_PAGES = 50;
+
+    /** Number of items in the list, e.g. the tracks of a large library. */
+    @Param({"1000", "40000"})
+    public int count;
+
+    private PageStore<String> store;
+    private String[] page;
+    private int nextPage;
+    private final Random random = new Random(1);
+
+    @Setup
+    public void setup() {
+        store = new PageStore<>(PAGE_SIZE, MAX_LOADED_PAGES * PAGE_SIZE, null);
+        store.setSize(count);
+        page = new String[PAGE_SIZE];
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            page[i] = "item " + i;
+        }
+    }
+
+    /** Store a received page, as {@link ItemAdapter#update} does. */
+    @Benchmark
+    public void update() {
+        int start = nextPage * PAGE_SIZE;
+        for (int i = 0; i < PAGE_SIZE && start + i < count; i++) {
+            store.set(start + i, page[i]);
+        }
+        nextPage = (start + PAGE_SIZE < count ? nextPage + 1 : 0);
+    }
+
+    /** Read a visible row, as {@link ItemAdapter#getItem} does. */
+    @Benchmark
+    public String get() {
+        return store.get(random.nextInt(count));
+    }
+
+    /** Move an item, as {@link ItemAdapter#removeItem} followed by {@link ItemAdapter#insertItem}. */
+    @Benchmark
+    public void removeAndInsert() {
+        int from = random.nextInt(count);
+        String item = store.get(from);
+        store.remove(from);
+        store.insert(random.nextInt(count), item);
+    }
+}
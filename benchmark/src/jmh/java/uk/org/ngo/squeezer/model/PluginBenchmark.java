@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import uk.org.ngo.squeezer.Util;
+import uk.org.ngo.squeezer.framework.ItemTemplate;
+import uk.org.ngo.squeezer.service.FixtureMessages;
+
+/**
+ * Creating the items of a received page, as done for every reply to a browse request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PluginBenchmark {
+    private static final String URL_PREFIX = "http://192.168.1.2:9000";
+
+    private Map<String, Object> base;
+    private Object[] records;
+
+    @Setup
+    public void setup() throws IOException, ParseException {
+        Map<String, Object> data = FixtureMessages.parse("browse_albums.json").get(0).getDataAsMap();
+        base = Util.getRecord(data, "base");
+        records = (Object[]) data.get("item_loop");
+    }
+
+    @Benchmark
+    public List<Plugin> page() {
+        ItemTemplate template = new ItemTemplate(base, URL_PREFIX);
+        List<Plugin> items = new ArrayList<>(records.length);
+        for (Object record : records) {
+            items.add(new Plugin((Map<String, Object>) record, template));
+        }
+        return items;
+    }
+}
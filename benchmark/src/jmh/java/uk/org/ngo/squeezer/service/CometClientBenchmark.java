@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer.service;
+
+import org.cometd.bayeux.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import de.greenrobot.event.EventBus;
+import uk.org.ngo.squeezer.Benchmarks;
+import uk.org.ngo.squeezer.Util;
+import uk.org.ngo.squeezer.framework.ItemTemplate;
+import uk.org.ngo.squeezer.model.CurrentPlaylistItem;
+import uk.org.ngo.squeezer.model.Player;
+
+/**
+ * Building the requests sent to the server, and applying the player status messages received from
+ * it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CometClientBenchmark {
+    private static final String URL_PREFIX = "http://192.168.1.2:9000";
+
+    private CometClient client;
+    private Player player;
+    private CometClient.Request browseRequest;
+    private CometClient.Request statusRequest;
+
+    /** Consecutive status messages while playing, which only differ in the progress. */
+    private final Map<String, Object>[] status = new Map[2];
+    private int nextStatus;
+
+    @Setup
+    public void setup() throws IOException, ParseException {
+        Benchmarks.context();
+        client = new CometClient(EventBus.builder()
+                .logNoSubscriberMessages(false)
+                .sendNoSubscriberEvent(false)
+                .build());
+
+        Message message = StreamingJsonParser.parseMessages(Benchmarks.fixture("player_status.json")).get(0);
+        status[0] = message.getDataAsMap();
+        status[1] = new HashMap<>(status[0]);
+        status[1].put("time", Util.getDouble(status[0], "time") + 1);
+
+        String[] channel = message.getChannel().split("/");
+        Map<String, Object> record = new HashMap<>();
+        record.put("playerid", channel[channel.length - 1]);
+        record.put("name", status[0].get("player_name"));
+        record.put("ip", status[0].get("player_ip"));
+        record.put("connected", status[0].get("player_connected"));
+        player = new Player(record);
+
+        browseRequest = new CometClient.Request(player, null, "browselibrary", "items")
+                .page(0, 20)
+                .param("menu", "1")
+                .param("mode", "albums")
+                .param("useContextMenu", "1");
+        statusRequest = new CometClient.Request(player, null, "status")
+                .currentSong()
+                .param("menu", "menu")
+                .param("useContextMenu", "1");
+    }
+
+    @Benchmark
+    public List<Object> slimRequestBrowse() {
+        return browseRequest.slimRequest();
+    }
+
+    @Benchmark
+    public List<Object> slimRequestStatus() {
+        return statusRequest.slimRequest();
+    }
+
+    /** Apply a status message, as {@link CometClient} does for each message on the player status channel. */
+    @Benchmark
+    public void parseStatus() {
+        Map<String, Object> messageData = status[nextStatus];
+        nextStatus = 1 - nextStatus;
+
+        CurrentPlaylistItem currentSong = null;
+        Object[] item_data = (Object[]) messageData.get("item_loop");
+        if (item_data != null && item_data.length > 0) {
+            Map<String, Object> record = (Map<String, Object>) item_data[0];
+            if (player.getPlayerState().isCurrentSong(record)) {
+                currentSong = player.getPlayerState().getCurrentSong();
+            } else {
+                ItemTemplate base = new ItemTemplate(Util.getRecord(messageData, "base"), URL_PREFIX);
+                currentSong = new CurrentPlaylistItem(record, base);
+            }
+        }
+        client.parseStatus(player, currentSong, messageData);
+    }
+}
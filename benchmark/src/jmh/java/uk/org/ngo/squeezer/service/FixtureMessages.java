@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.org.ngo.squeezer.service;
+
+import org.cometd.bayeux.Message;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.List;
+
+import uk.org.ngo.squeezer.Benchmarks;
+
+/**
+ * Access to the messages in the fixtures for benchmarks outside this package.
+ */
+public class FixtureMessages {
+    private FixtureMessages() {
+    }
+
+    /**
+     * @return The messages in the given file in the fixtures folder, parsed as by
+     *     {@link HttpStreamingTransport}.
+     */
+    public static List<Message.Mutable> parse(String name) throws IOException, ParseException {
+        return StreamingJsonParser.parseMessages(Benchmarks.fixture(name));
+    }
+}
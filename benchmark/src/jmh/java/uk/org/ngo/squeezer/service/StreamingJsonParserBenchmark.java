@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2020 Kurt Aaholst <kaaholst@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.org.ngo.squeezer.service;
+
+import org.cometd.bayeux.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import uk.org.ngo.squeezer.Benchmarks;
+
+/**
+ * Parsing of the Bayeux messages received from the server, as done by
+ * {@link HttpStreamingTransport}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamingJsonParserBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Size of the chunks the streamed response is split in. */
+    private static final int CHUNK_SIZE = 4096;
+
+    private byte[] browseReply;
+    private byte[] playerStatus;
+    private byte[] stream;
+
+    @Setup
+    public void setup() throws IOException {
+        browseReply = Benchmarks.fixture("browse_albums.json");
+        playerStatus = Benchmarks.fixture("player_status.json");
+
+        // A streamed response with a number of player status messages and a browse reply
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(UTF_8));
+        for (int i = 0; i < 10; i++) {
+            writeChunks(out, playerStatus);
+        }
+        writeChunks(out, browseReply);
+        out.write("0\r\n\r\n".getBytes(UTF_8));
+        stream = out.toByteArray();
+    }
+
+    @Benchmark
+    public List<Message.Mutable> parseBrowseReply() throws ParseException {
+        return StreamingJsonParser.parseMessages(browseReply);
+    }
+
+    @Benchmark
+    public List<Message.Mutable> parsePlayerStatus() throws ParseException {
+        return StreamingJsonParser.parseMessages(playerStatus);
+    }
+
+    @Benchmark
+    public List<Message.Mutable> parseStream() throws IOException, ParseException {
+        List<Message.Mutable> messages = new ArrayList<>();
+        StreamingJsonParser parser = new StreamingJsonParser(new ByteArrayInputStream(stream));
+        //noinspection StatementWithEmptyBody
+        while (!parser.readLine().isEmpty()) {
+        }
+        parser.startChunkedBody();
+        while (parser.hasMoreContent()) {
+            messages.addAll(parser.readMessages());
+        }
+        return messages;
+    }
+
+    private static void writeChunks(ByteArrayOutputStream out, byte[] content) throws IOException {
+        for (int pos = 0; pos < content.length; pos += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, content.length - pos);
+            out.write((Integer.toHexString(length) + "\r\n").getBytes(UTF_8));
+            out.write(content, pos, length);
+            out.write("\r\n".getBytes(UTF_8));
+        }
+    }
+}